@@ -1,13 +1,26 @@
 package com.hb.hbetl;
 
 import com.amazonaws.ClientConfiguration;
+import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.regions.Regions;
-import com.amazonaws.services.lambda.AWSLambda;
 import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.hb.hbetl.jobEtl.JobEtl;
+import com.hb.hbetl.jobEtl.lambdas.LoadJobPageLambda;
+import com.hb.hbetl.jobEtl.lambdas.LoadJobPageLambdaImpl;
+import com.hb.hbetl.jobEtl.lambdas.ScrapeJobPagesLambda;
+import com.hb.hbetl.jobEtl.lambdas.ScrapeJobPagesLambdaImpl;
+import com.hb.hbetl.lambdaInvokers.LambdaInvoker;
+import com.hb.hbetl.lambdaInvokers.LambdaInvokerRegistry;
+import com.hb.hbetl.lambdaInvokers.LocalLambdaInvoker;
+import com.hb.hbetl.lambdaInvokers.RemoteLambdaInvoker;
+import com.hb.hbetl.redshift.RedshiftConnectionPool;
 import com.hb.hbetl.statReportEtl.StatReportEtl;
+import com.hb.hbetl.statReportEtl.lambdas.LoadStatReportLambda;
+import com.hb.hbetl.statReportEtl.lambdas.LoadStatReportLambdaImpl;
+import com.hb.hbetl.statReportEtl.lambdas.ProcessStatReportLambda;
+import com.hb.hbetl.statReportEtl.lambdas.ProcessStatReportLambdaImpl;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -17,7 +30,6 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Properties;
 
 public class HbEtl implements Runnable {
@@ -25,26 +37,57 @@ public class HbEtl implements Runnable {
     public static final String REDSHIFT_CREDENTIALS = "aws_iam_role=arn:aws:iam::061254541186:role/hbetl";
 
     private final AmazonS3 s3;
-    private final AWSLambda lambda;
+    private final LambdaInvokerRegistry lambdaInvoker;
     private final Connection redshiftConnection;
+    private final RedshiftConnectionPool redshiftConnectionPool;
 
     private static final Logger LOGGER = LogManager.getLogger(HbEtl.class);
 
     public HbEtl() throws Exception {
-        this.redshiftConnection = getRedshiftConnection();
+        LambdaInvoker.Mode lambdaInvokerMode = LambdaInvoker.getModeFromEnv();
+        int localLambdaThreadCount = LocalLambdaInvoker.getThreadCountFromEnv();
+
+        // local lambdas share the pool, so by default there's a connection for each of them plus one for the etl
+        int defaultPoolSize = (lambdaInvokerMode == LambdaInvoker.Mode.LOCAL)
+                ? Math.max(localLambdaThreadCount + 1, RedshiftConnectionPool.DEFAULT_MAX_SIZE)
+                : RedshiftConnectionPool.DEFAULT_MAX_SIZE;
+
+        this.redshiftConnectionPool = new RedshiftConnectionPool(HbEtl::getRedshiftConnection, RedshiftConnectionPool.getMaxSizeFromEnv(defaultPoolSize));
+        this.redshiftConnection = redshiftConnectionPool.getConnection();
 
         ClientConfiguration clientConfig = new ClientConfiguration();
         clientConfig.setSocketTimeout(30 * 60 * 1000);
 
-        this.s3 = AmazonS3ClientBuilder.standard()
-                .withRegion(Regions.US_EAST_1)
-                .withClientConfiguration(clientConfig)
-                .build();
+        this.s3 = buildS3Client(clientConfig);
+
+        switch (lambdaInvokerMode) {
+            case LOCAL:
+                this.lambdaInvoker = new LambdaInvokerRegistry(createLocalLambdaInvoker(s3, redshiftConnectionPool, localLambdaThreadCount));
+                break;
+            case REMOTE:
+            default:
+                // bounds the whole invocation (including the sdk's own retries), not just each socket read
+                ClientConfiguration lambdaClientConfig = new ClientConfiguration(clientConfig);
+                lambdaClientConfig.setClientExecutionTimeout(RemoteLambdaInvoker.getTimeoutSecondsFromEnv() * 1000);
+
+                this.lambdaInvoker = new LambdaInvokerRegistry(new RemoteLambdaInvoker(AWSLambdaClientBuilder.standard()
+                    .withRegion(Regions.US_EAST_1)
+                    .withClientConfiguration(lambdaClientConfig)
+                    .build()));
+                break;
+        }
+    }
 
-        this.lambda = AWSLambdaClientBuilder.standard()
-            .withRegion(Regions.US_EAST_1)
-            .withClientConfiguration(clientConfig)
-            .build();
+    /**
+     * @param redshiftConnection connection used by the etl stages (local lambdas open their own connections)
+     * @param s3 s3 client, or a local stand-in for it
+     * @param lambdaInvoker runs the lambda functions for each stage
+     */
+    public HbEtl(Connection redshiftConnection, AmazonS3 s3, LambdaInvoker lambdaInvoker) {
+        this.redshiftConnection = redshiftConnection;
+        this.redshiftConnectionPool = null;
+        this.s3 = s3;
+        this.lambdaInvoker = new LambdaInvokerRegistry(lambdaInvoker);
     }
 
     public static void main(String[] args) throws Exception {
@@ -61,20 +104,59 @@ public class HbEtl implements Runnable {
 
     @Override
     public void run() {
-        StatReportEtl statReportEtl = new StatReportEtl(redshiftConnection, s3, lambda)
-                .setYearsToLoad(Arrays.asList(2017, 2016));
-        statReportEtl.run();
-
-        if (!statReportEtl.isSuccessful()) {
-            LOGGER.error("Stat Report ETL failed:", statReportEtl.getFailure());
+        try {
+            StatReportEtl statReportEtl = new StatReportEtl(redshiftConnection, s3, lambdaInvoker)
+                    .setYearsToLoad(Arrays.asList(2017, 2016));
+            statReportEtl.run();
+
+            if (!statReportEtl.isSuccessful()) {
+                LOGGER.error("Stat Report ETL failed:", statReportEtl.getFailure());
+            }
+
+            JobEtl jobEtl = new JobEtl(redshiftConnection, s3, lambdaInvoker);
+            jobEtl.run();
+
+            if (!jobEtl.isSuccessful()) {
+                LOGGER.error("Job ETL failed:", jobEtl.getFailure());
+            }
+        } finally {
+            LOGGER.info("");
+            LOGGER.info("Lambda invocations:");
+            lambdaInvoker.getMetrics().forEach(LOGGER::info);
+
+            lambdaInvoker.close();
+            if (redshiftConnectionPool != null)
+                redshiftConnectionPool.close();
         }
+    }
 
-        JobEtl jobEtl = new JobEtl(redshiftConnection, lambda);
-        jobEtl.run();
+    /**
+     * Runs each lambda implementation in this jvm, using the given s3 client & redshift connections from the given pool
+     */
+    public static LocalLambdaInvoker createLocalLambdaInvoker(AmazonS3 s3, RedshiftConnectionPool redshiftConnectionPool, int threadCount) {
+        return new LocalLambdaInvoker(threadCount)
+                .register(LoadStatReportLambda.class, () -> new LoadStatReportLambdaImpl(s3))
+                .register(ProcessStatReportLambda.class, () -> new ProcessStatReportLambdaImpl(s3, ProcessStatReportLambdaImpl.getXlsReadModeFromEnv()))
+                .register(LoadJobPageLambda.class, () -> new LoadJobPageLambdaImpl(redshiftConnectionPool.getConnection(), s3))
+                .register(ScrapeJobPagesLambda.class, () -> new ScrapeJobPagesLambdaImpl(redshiftConnectionPool.getConnection(), s3));
+    }
 
-        if (!jobEtl.isSuccessful()) {
-            LOGGER.error("Job ETL failed:", jobEtl.getFailure());
-        }
+    /**
+     * Uses the s3 endpoint in CFG_S3_ENDPOINT if it's set (eg. to point at a local s3 stand-in)
+     */
+    private static AmazonS3 buildS3Client(ClientConfiguration clientConfig) {
+        String endpoint = System.getenv("CFG_S3_ENDPOINT");
+
+        AmazonS3ClientBuilder s3Builder = AmazonS3ClientBuilder.standard()
+                .withClientConfiguration(clientConfig);
+
+        if (endpoint == null || endpoint.isEmpty())
+            return s3Builder.withRegion(Regions.US_EAST_1).build();
+
+        return s3Builder
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, Regions.US_EAST_1.getName()))
+                .withPathStyleAccessEnabled(true)
+                .build();
     }
 
     public static Connection getRedshiftConnection() throws ClassNotFoundException, SQLException {
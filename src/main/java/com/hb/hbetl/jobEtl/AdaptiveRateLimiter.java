@@ -0,0 +1,104 @@
+package com.hb.hbetl.jobEtl;
+
+/**
+ * Token bucket whose rate adapts to how the source is coping (additive increase, multiplicative decrease): each
+ * success adds a little to the rate & each throttle cuts it. Shared by every worker fetching from the same source so
+ * together they settle around the highest rate the source tolerates.
+ *
+ * Permits can be taken in bulk (eg. a whole batch of pages) - the bucket goes into debt & the next caller waits it off.
+ */
+public class AdaptiveRateLimiter {
+    public static final double DEFAULT_DECREASE_FACTOR = 0.5;
+    public static final long DEFAULT_DECREASE_COOLDOWN_MILLIS = 5 * 1000;
+
+    private final double minRatePerSecond;
+    private final double maxRatePerSecond;
+    private final double increasePerSecond;
+
+    private double decreaseFactor = DEFAULT_DECREASE_FACTOR;
+    private long decreaseCooldownMillis = DEFAULT_DECREASE_COOLDOWN_MILLIS;
+
+    private double ratePerSecond;
+    private double availablePermits;
+    private long lastRefillNanos;
+    private long lastDecreaseMillis;
+
+    /**
+     * @param increasePerSecond how much the rate grows after a second's worth of successes
+     */
+    public AdaptiveRateLimiter(double initialRatePerSecond, double minRatePerSecond, double maxRatePerSecond, double increasePerSecond) {
+        if (minRatePerSecond <= 0 || minRatePerSecond > maxRatePerSecond)
+            throw new IllegalArgumentException("minRatePerSecond must be positive & no more than maxRatePerSecond");
+
+        this.minRatePerSecond = minRatePerSecond;
+        this.maxRatePerSecond = maxRatePerSecond;
+        this.increasePerSecond = increasePerSecond;
+        this.ratePerSecond = clamp(initialRatePerSecond);
+        this.availablePermits = 0;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public AdaptiveRateLimiter setDecreaseFactor(double decreaseFactor) {
+        if (decreaseFactor <= 0 || decreaseFactor >= 1)
+            throw new IllegalArgumentException("decreaseFactor must be between 0 & 1");
+
+        this.decreaseFactor = decreaseFactor;
+        return this;
+    }
+
+    /**
+     * @param decreaseCooldownMillis throttles reported within this long of the last decrease don't decrease the rate
+     *                               again, so workers all hitting the same throttle only back off once
+     */
+    public AdaptiveRateLimiter setDecreaseCooldownMillis(long decreaseCooldownMillis) {
+        this.decreaseCooldownMillis = decreaseCooldownMillis;
+        return this;
+    }
+
+    public synchronized double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    /**
+     * Blocks until the permits can be taken at the current rate
+     */
+    public void acquire(int permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            availablePermits -= permits;
+            waitNanos = (availablePermits < 0) ? (long) (-availablePermits / ratePerSecond * 1e9) : 0;
+        }
+
+        if (waitNanos > 0)
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+    }
+
+    public synchronized void onSuccess(int count) {
+        refill();
+        // +increasePerSecond once a second's worth of requests (at the current rate) have succeeded
+        ratePerSecond = clamp(ratePerSecond + increasePerSecond * count / ratePerSecond);
+    }
+
+    public synchronized void onThrottle() {
+        long now = System.currentTimeMillis();
+        if (now - lastDecreaseMillis < decreaseCooldownMillis)
+            return;
+
+        refill();
+        ratePerSecond = clamp(ratePerSecond * decreaseFactor);
+        lastDecreaseMillis = now;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+
+        // at most a second's worth of permits build up while idle
+        availablePermits = Math.min(Math.max(ratePerSecond, 1), availablePermits + (now - lastRefillNanos) / 1e9 * ratePerSecond);
+        lastRefillNanos = now;
+    }
+
+    private double clamp(double rate) {
+        return Math.max(minRatePerSecond, Math.min(maxRatePerSecond, rate));
+    }
+}
@@ -1,8 +1,7 @@
 package com.hb.hbetl.jobEtl;
 
-import com.amazonaws.services.lambda.AWSLambda;
 import com.amazonaws.services.s3.AmazonS3;
-import com.hb.hbetl.statReportEtl.StatFileType;
+import com.hb.hbetl.lambdaInvokers.LambdaInvoker;
 import org.apache.logging.log4j.LogManager;
 
 import java.net.MalformedURLException;
@@ -11,35 +10,111 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-
-import static com.hb.hbetl.statReportEtl.StatFileSchema.FILE_REF_COLUMN_NAME;
 
 public class JobEtl implements Runnable {
     public static final String REDSHIFT_JOB_STATUS_TABLE = "job_status";
     public static final String S3_JOB_PREFIX = "nyc.jobs";
+    public static final String S3_JOB_PARSED_STAGING_PREFIX = "nyc.jobs-parsed-staging";
 
     public static final String JOB_PAGE_TEMP_FILE_PREFIX = "hbetl_nyc_dob_job_";
     public static final String JOB_PAGE_TEMP_FILE_DELIMITER = "__";
 
+    public static final String CHUNK_SIZE_ENV_VARIABLE = "CFG_JOB_ETL_CHUNK_SIZE";
+    public static final String MAX_CHUNKS_ENV_VARIABLE = "CFG_JOB_ETL_MAX_CHUNKS";
+    public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    private static final String JOB_PAGES_CHECKPOINT_NAME = "job_pages";
+
+    // errors are recorded a chunk's worth at a time, so they're applied in bounded batches rather than all at once
+    private static final int ERROR_FLUSH_MAX_PENDING_ROWS = 5000;
+    private static final long ERROR_FLUSH_INTERVAL_MILLIS = 60 * 1000;
+
     private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(JobEtl.class);
 
     public JobPageLoader jobPageLoader;
     public JobPageScraper jobPageScraper;
+    public JobPageArchiveScraper jobPageArchiveScraper;
 
     private final Connection redshiftConnection;
-    private final AWSLambda lambda;
+    private final AmazonS3 s3;
+    private final LambdaInvoker lambdaInvoker;
+
+    private final JobEtlCheckpoint jobEtlCheckpoint;
+
+    // shared by every chunk's loader, so each chunk starts at the rate bis was tolerating at the end of the last one
+    private AdaptiveRateLimiter jobPageRateLimiter;
 
     private Exception failure;
-    private List<Integer> loadedJobNumbers;
-    private List<Integer> processedJobNumbers;
+    private int loadedJobCount;
+    private int processedJobCount;
+
+    private boolean rescrapeJobPageArchives = false;
+    private int chunkSize = getChunkSizeFromEnv();
+    private int maxChunks = getMaxChunksFromEnv();
+
+    /**
+     * Jobs in one keyset page of job_status, ordered by job number
+     */
+    private static class JobChunk {
+        final JobNumberList jobNumbersToLoad = new JobNumberList();
+        final JobNumberList jobNumbersToProcess = new JobNumberList();
+        int lastJobNumber;
+
+        boolean isEmpty() {
+            return jobNumbersToLoad.isEmpty() && jobNumbersToProcess.isEmpty();
+        }
+    }
 
-    public JobEtl(Connection redshiftConnection, AWSLambda lambda) {
+    public JobEtl(Connection redshiftConnection, AmazonS3 s3, LambdaInvoker lambdaInvoker) {
         this.redshiftConnection = redshiftConnection;
-        this.lambda = lambda;
+        this.s3 = s3;
+        this.lambdaInvoker = lambdaInvoker;
+        this.jobEtlCheckpoint = new JobEtlCheckpoint(redshiftConnection, JOB_PAGES_CHECKPOINT_NAME);
+    }
+
+    public static int getChunkSizeFromEnv() {
+        String chunkSize = System.getenv(CHUNK_SIZE_ENV_VARIABLE);
+        if (chunkSize == null || chunkSize.isEmpty())
+            return DEFAULT_CHUNK_SIZE;
+
+        return Integer.parseInt(chunkSize);
+    }
+
+    public static int getMaxChunksFromEnv() {
+        String maxChunks = System.getenv(MAX_CHUNKS_ENV_VARIABLE);
+        if (maxChunks == null || maxChunks.isEmpty())
+            return 0;
+
+        return Integer.parseInt(maxChunks);
+    }
+
+    /**
+     * @param chunkSize how many jobs are selected, loaded & processed (then checkpointed) at a time
+     */
+    public JobEtl setChunkSize(int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be at least 1");
+
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * @param maxChunks stop after this many chunks (the next run carries on from there), 0 to run until every job has
+     *                  been attempted
+     */
+    public JobEtl setMaxChunks(int maxChunks) {
+        this.maxChunks = maxChunks;
+        return this;
+    }
+
+    /**
+     * Also rescrape every job page archive (see {@link JobPageStore}) after processing new jobs, eg. after the parser
+     * has changed
+     */
+    public JobEtl setRescrapeJobPageArchives(boolean rescrapeJobPageArchives) {
+        this.rescrapeJobPageArchives = rescrapeJobPageArchives;
+        return this;
     }
 
     @Override
@@ -55,46 +130,54 @@ public class JobEtl implements Runnable {
             LOGGER.info("Setting up Redshift Tables");
             createJobStatusTable();
             createJobDataTable();
-            updateJobStatusTable();
-
-            // Find Jobs to Load
-            LOGGER.info("");
-            LOGGER.info("Finding jobs to load");
-            List<Integer> jobNumbersToLoad = getJobNumbersToLoad();
-            jobNumbersToLoad = jobNumbersToLoad.subList(0, 10);
-            LOGGER.info("Found " + jobNumbersToLoad.size() + " jobs to load");
+            jobEtlCheckpoint.createTable();
 
-            // Load Job Pages
+            // Add new jobs from the job stat reports
             LOGGER.info("");
-            LOGGER.info("Loading job pages");
-            jobPageLoader = new JobPageLoader(jobNumbersToLoad, lambda);
-            loadedJobNumbers = jobPageLoader.call();
-            LOGGER.info("Loaded " + loadedJobNumbers.size() + " job pages");
-
-            LOGGER.info("Failed to load " + jobPageLoader.getFailures().size() + " job pages");
-            jobPageLoader.getFailures()
-                    .forEach((jobNum, failure) -> LOGGER.debug("Failed to load job: " + jobNum, failure));
+            LOGGER.info("Finding new jobs");
+            JobNumberList newJobNumbers = new NewJobFinder(redshiftConnection, s3).call();
+            LOGGER.info("Added " + newJobNumbers.size() + " new jobs");
 
-            // Process each Job Page
+            // Load & Process each chunk of jobs, picking up after the last finished chunk
+            jobPageRateLimiter = JobPageLoader.createDefaultRateLimiter();
+            Integer lastJobNumber = jobEtlCheckpoint.getLastJobNumber();
             LOGGER.info("");
-            LOGGER.info("Finding jobs to process");
-            List<Integer> jobNumbersToProcess = getJobNumbersToProcess();
-            LOGGER.info("Found " + jobNumbersToProcess.size() + " jobs to process");
-
-            LOGGER.info("Processing jobs");
-            jobPageScraper = new JobPageScraper(jobNumbersToProcess, lambda);
-            processedJobNumbers = jobPageScraper.call();
-            LOGGER.info("Processed " + processedJobNumbers.size() + " jobs");
-
-            LOGGER.info("Failed to process " + jobPageScraper.getFailures().size() + " jobs");
-            jobPageScraper.getFailures()
-                    .forEach((jobNum, failure) -> LOGGER.debug("Failed to process job: " + jobNum, failure));
+            LOGGER.info((lastJobNumber == null) ? "Starting a new pass over the jobs" : "Resuming after job " + lastJobNumber);
+
+            int chunkCount = 0;
+            while (maxChunks <= 0 || chunkCount < maxChunks) {
+                JobChunk jobChunk = getNextJobChunk((lastJobNumber == null) ? -1 : lastJobNumber);
+                if (jobChunk.isEmpty()) {
+                    LOGGER.info("Finished pass over the jobs");
+                    jobEtlCheckpoint.clear();
+                    break;
+                }
+
+                processJobChunk(jobChunk);
+                jobEtlCheckpoint.save(jobChunk.lastJobNumber);
+
+                lastJobNumber = jobChunk.lastJobNumber;
+                chunkCount++;
+            }
 
-            // Update redshift with failures
             LOGGER.info("");
-            LOGGER.info("Uploading failures to Redshift");
-            updateJobStatusesWithErrors(jobPageLoader.getFailures());
-            updateJobStatusesWithErrors(jobPageScraper.getFailures());
+            LOGGER.info("Loaded " + loadedJobCount + " job pages");
+            LOGGER.info("Processed " + processedJobCount + " jobs");
+
+            if (rescrapeJobPageArchives) {
+                LOGGER.info("");
+                LOGGER.info("Rescraping job page archives");
+                jobPageArchiveScraper = new JobPageArchiveScraper(s3, lambdaInvoker);
+                LOGGER.info("Rescraped " + jobPageArchiveScraper.call().size() + " jobs");
+
+                LOGGER.info("Failed to rescrape " + jobPageArchiveScraper.getFailures().size() + " jobs");
+                jobPageArchiveScraper.getArchiveFailures()
+                        .forEach((archiveS3Key, failure) -> LOGGER.warn("Failed to rescrape archive: " + archiveS3Key, failure));
+
+                try (JobStatusBatcher jobStatusBatcher = createErrorBatcher()) {
+                    recordJobStatusErrors(jobStatusBatcher, jobPageArchiveScraper.getFailures());
+                }
+            }
         } catch (Exception e) {
             this.failure = e;
         }
@@ -124,67 +207,76 @@ public class JobEtl implements Runnable {
         }
     }
 
-    private void updateJobStatusTable() throws SQLException {
+    /**
+     * Keyset pagination over job_status: the next chunk of jobs after the given job number which still need loading or
+     * processing, so only one chunk is ever held in memory
+     */
+    private JobChunk getNextJobChunk(int afterJobNumber) throws SQLException {
         try (Statement statement = redshiftConnection.createStatement()) {
-            String sql = "insert into " + REDSHIFT_JOB_STATUS_TABLE + " (" +
-                    "select distinct to_number(job_num, 9999999999)::integer as job_num, " + FILE_REF_COLUMN_NAME + " as src_stat_report " +
-                    "from " + StatFileType.JOB.sqlTableName + " srj " +
-                    "where not exists (" +
-                        "select 1 from " + REDSHIFT_JOB_STATUS_TABLE + " j where j.job_num = srj.job_num" +
-                    ")" +
-                ")";
-
-            statement.execute(sql);
-        }
-    }
-
-    private List<Integer> getJobNumbersToLoad() throws SQLException {
-        try (Statement statement = redshiftConnection.createStatement()) {
-            String sql = "select job_num from " + REDSHIFT_JOB_STATUS_TABLE + " where date_last_downloaded is null";
+            String sql = String.format("select job_num, date_last_downloaded from %s ", REDSHIFT_JOB_STATUS_TABLE);
+            sql += String.format("where job_num > %d ", afterJobNumber);
+            sql += "and (date_last_downloaded is null or (date_last_parsed is null and s3_key is not null)) ";
+            sql += String.format("order by job_num limit %d", chunkSize);
 
+            JobChunk jobChunk = new JobChunk();
             ResultSet result = statement.executeQuery(sql);
-            List<Integer> jobNumbers = new ArrayList<>(result.getFetchSize());
             while (result.next()) {
-                jobNumbers.add(result.getInt("job_num"));
-            }
+                int jobNumber = result.getInt("job_num");
 
-            return jobNumbers;
-        }
-    }
+                if (result.getTimestamp("date_last_downloaded") == null)
+                    jobChunk.jobNumbersToLoad.add(jobNumber);
+                else
+                    jobChunk.jobNumbersToProcess.add(jobNumber);
 
-    private List<Integer> getJobNumbersToProcess() throws SQLException {
-        try (Statement statement = redshiftConnection.createStatement()) {
-            String sql = String.format("select job_num from %s ", REDSHIFT_JOB_STATUS_TABLE);
-            sql += "where date_last_parsed is null ";
-            sql += "and date_last_downloaded is not null ";
-            sql += "and s3_key is not null";
-
-            ResultSet result = statement.executeQuery(sql);
-            List<Integer> jobNumbers = new ArrayList<>(result.getFetchSize());
-            while (result.next()) {
-                jobNumbers.add(result.getInt("job_num"));
+                jobChunk.lastJobNumber = jobNumber;
             }
 
-            return jobNumbers;
+            return jobChunk;
         }
     }
 
-    private void updateJobStatusesWithErrors(Map<Integer, Exception> jobFailures) throws SQLException {
-        try (Statement statement = redshiftConnection.createStatement()) {
-            String updateTemplate = "update " + REDSHIFT_JOB_STATUS_TABLE + " set last_error = '%s' where job_num = %s";
-
-            List<String> updateStatements = jobFailures.entrySet().stream()
-                    .map(entry -> String.format(updateTemplate, entry.getValue().getLocalizedMessage(), entry.getKey()))
-                    .collect(Collectors.toList());
-
-            statement.execute("begin");
+    /**
+     * Loads & processes the chunk's jobs (processing each as soon as it's loaded) & records their failures
+     */
+    private void processJobChunk(JobChunk jobChunk) throws Exception {
+        LOGGER.info("");
+        LOGGER.info("Loading & processing jobs up to " + jobChunk.lastJobNumber + ": "
+                + jobChunk.jobNumbersToLoad.size() + " to load, "
+                + jobChunk.jobNumbersToProcess.size() + " already loaded to process");
+
+        JobPipeline jobPipeline = new JobPipeline(jobChunk.jobNumbersToLoad, jobChunk.jobNumbersToProcess, lambdaInvoker);
+        jobPageLoader = jobPipeline.getJobPageLoader().setRateLimiter(jobPageRateLimiter);
+        jobPageScraper = jobPipeline.getJobPageScraper();
+
+        int processedCount = jobPipeline.call().size();
+        int loadedCount = jobPipeline.getLoadedJobNumbers().size();
+        loadedJobCount += loadedCount;
+        processedJobCount += processedCount;
+        LOGGER.info("Loaded " + loadedCount + " job pages, processed " + processedCount + " jobs");
+
+        LOGGER.info("Failed to load " + jobPageLoader.getFailures().size() + " job pages");
+        jobPageLoader.getFailures().forEachReason((message, example, jobCount) ->
+                LOGGER.debug("Failed to load " + jobCount + " jobs: " + message, example));
+
+        LOGGER.info("Failed to process " + jobPageScraper.getFailures().size() + " jobs");
+        jobPageScraper.getFailures().forEachReason((message, example, jobCount) ->
+                LOGGER.debug("Failed to process " + jobCount + " jobs: " + message, example));
+
+        // failures are recorded before the chunk is checkpointed
+        try (JobStatusBatcher jobStatusBatcher = createErrorBatcher()) {
+            recordJobStatusErrors(jobStatusBatcher, jobPageLoader.getFailures());
+            recordJobStatusErrors(jobStatusBatcher, jobPageScraper.getFailures());
+        }
+    }
 
-            for (String updateSql : updateStatements) {
-                statement.execute(updateSql);
-            }
+    private JobStatusBatcher createErrorBatcher() {
+        return new JobStatusBatcher(redshiftConnection, s3)
+                .setMaxPendingRows(ERROR_FLUSH_MAX_PENDING_ROWS)
+                .setFlushIntervalMillis(ERROR_FLUSH_INTERVAL_MILLIS);
+    }
 
-            statement.execute("commit");
-        }
+    private void recordJobStatusErrors(JobStatusBatcher jobStatusBatcher, JobFailures jobFailures) throws SQLException {
+        jobFailures.forEach(jobStatusBatcher::recordError);
     }
 
     public static URL getUrlForJobNum(Integer jobNum) throws MalformedURLException {
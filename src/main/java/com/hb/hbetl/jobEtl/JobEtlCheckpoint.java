@@ -0,0 +1,77 @@
+package com.hb.hbetl.jobEtl;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Progress of a job etl pass, persisted in redshift so a run which is interrupted (or stopped after a few chunks)
+ * resumes from the last chunk it finished rather than starting over.
+ *
+ * The checkpoint is the highest job number of the last finished chunk, job numbers are worked through in ascending
+ * order so everything up to & including it has been attempted in the current pass.
+ */
+public class JobEtlCheckpoint {
+    public static final String REDSHIFT_CHECKPOINT_TABLE = "job_etl_checkpoint";
+
+    private final Connection redshiftConnection;
+    private final String checkpointName;
+
+    public JobEtlCheckpoint(Connection redshiftConnection, String checkpointName) {
+        this.redshiftConnection = redshiftConnection;
+        this.checkpointName = checkpointName;
+    }
+
+    public void createTable() throws SQLException {
+        try (Statement statement = redshiftConnection.createStatement()) {
+            String sql = "create table if not exists " + REDSHIFT_CHECKPOINT_TABLE + " (" +
+                    "checkpoint_name varchar(50) not null," +
+                    "last_job_num integer not null," +
+                    "date_updated timestamp not null default getdate()" +
+                ")";
+
+            statement.execute(sql);
+        }
+    }
+
+    /**
+     * @return the last job number of the current pass which has been finished, null if a new pass should be started
+     */
+    public Integer getLastJobNumber() throws SQLException {
+        try (Statement statement = redshiftConnection.createStatement()) {
+            String sql = String.format("select max(last_job_num) as last_job_num from %s where checkpoint_name = '%s'",
+                    REDSHIFT_CHECKPOINT_TABLE, checkpointName);
+
+            ResultSet result = statement.executeQuery(sql);
+            if (!result.next())
+                return null;
+
+            int lastJobNumber = result.getInt("last_job_num");
+            return result.wasNull() ? null : lastJobNumber;
+        }
+    }
+
+    public void save(int lastJobNumber) throws SQLException {
+        try (Statement statement = redshiftConnection.createStatement()) {
+            statement.execute("begin");
+            statement.execute(getDeleteSql());
+            statement.execute(String.format("insert into %s (checkpoint_name, last_job_num) values ('%s', %d)",
+                    REDSHIFT_CHECKPOINT_TABLE, checkpointName, lastJobNumber));
+            statement.execute("commit");
+        }
+    }
+
+    /**
+     * Ends the current pass, the next run starts again from the lowest job number
+     */
+    public void clear() throws SQLException {
+        try (Statement statement = redshiftConnection.createStatement()) {
+            statement.execute(getDeleteSql());
+        }
+    }
+
+    private String getDeleteSql() {
+        return String.format("delete from %s where checkpoint_name = '%s'", REDSHIFT_CHECKPOINT_TABLE, checkpointName);
+    }
+}
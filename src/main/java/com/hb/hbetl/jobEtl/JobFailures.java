@@ -0,0 +1,134 @@
+package com.hb.hbetl.jobEtl;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Failed jobs, stored as a job number & a failure code per job rather than a map of boxed job numbers to exceptions.
+ *
+ * Jobs tend to fail for a handful of reasons (eg. a whole batch failing with the same exception) so each distinct
+ * reason gets a code, & only the first exception seen for each code is kept for logging (for the first
+ * {@value #MAX_EXAMPLES} codes). Messages often name the job (its number, its page's url), so the reason is the
+ * exception's class & its message with urls & numbers masked - the full message is only logged.
+ */
+public class JobFailures {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAX_EXAMPLES = 100;
+
+    private static final Logger LOGGER = LogManager.getLogger(JobFailures.class);
+
+    private static final Pattern URL_PATTERN = Pattern.compile("[a-zA-Z][a-zA-Z0-9+.-]*://\\S+");
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("[0-9]+");
+
+    public interface JobFailureHandler<E extends Exception> {
+        void handleFailure(int jobNumber, String message) throws E;
+    }
+
+    public interface FailureReasonHandler {
+        void handleFailureReason(String message, Exception example, int jobCount);
+    }
+
+    private int[] jobNumbers = new int[DEFAULT_CAPACITY];
+    private int[] failureCodes = new int[DEFAULT_CAPACITY];
+    private int size;
+
+    private final Map<String, Integer> failureCodesByReason = new HashMap<>();
+    private final List<String> reasons = new ArrayList<>();
+    private final List<Exception> examples = new ArrayList<>();
+
+    public synchronized void add(int jobNumber, Exception failure) {
+        int failureCode = getFailureCode(failure);
+        LOGGER.debug("Job {} failed: {}", jobNumber, failure.getLocalizedMessage());
+
+        if (size == jobNumbers.length) {
+            int capacity = size + (size >> 1);
+            jobNumbers = Arrays.copyOf(jobNumbers, capacity);
+            failureCodes = Arrays.copyOf(failureCodes, capacity);
+        }
+
+        jobNumbers[size] = jobNumber;
+        failureCodes[size] = failureCode;
+        size++;
+    }
+
+    public void addAll(List<Integer> jobNumbers, Exception failure) {
+        for (Integer jobNumber : jobNumbers) {
+            add(jobNumber, failure);
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the failure reason for the job, null if it didn't fail. If it failed more than once this is the latest
+     */
+    public synchronized String getReason(int jobNumber) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (jobNumbers[i] == jobNumber)
+                return reasons.get(failureCodes[i]);
+        }
+
+        return null;
+    }
+
+    public synchronized <E extends Exception> void forEach(JobFailureHandler<E> handler) throws E {
+        for (int i = 0; i < size; i++) {
+            handler.handleFailure(jobNumbers[i], reasons.get(failureCodes[i]));
+        }
+    }
+
+    /**
+     * Calls the handler once for each distinct failure, with how many jobs failed that way. The example may be null
+     */
+    public synchronized void forEachReason(FailureReasonHandler handler) {
+        int[] jobCounts = new int[reasons.size()];
+        for (int i = 0; i < size; i++) {
+            jobCounts[failureCodes[i]]++;
+        }
+
+        for (int failureCode = 0; failureCode < reasons.size(); failureCode++) {
+            handler.handleFailureReason(reasons.get(failureCode), examples.get(failureCode), jobCounts[failureCode]);
+        }
+    }
+
+    private int getFailureCode(Exception failure) {
+        String reason = normalizeReason(failure);
+
+        Integer failureCode = failureCodesByReason.get(reason);
+        if (failureCode != null)
+            return failureCode;
+
+        failureCode = reasons.size();
+        failureCodesByReason.put(reason, failureCode);
+        reasons.add(reason);
+        examples.add((failureCode < MAX_EXAMPLES) ? failure : null);
+
+        return failureCode;
+    }
+
+    /**
+     * @return the exception's class & message with anything specific to the job (urls & numbers) masked, eg.
+     * "FileNotFoundException: http://... job 121234567" -> "FileNotFoundException: <url> job #"
+     */
+    static String normalizeReason(Exception failure) {
+        String message = failure.getLocalizedMessage();
+        if (message == null)
+            return failure.getClass().getSimpleName();
+
+        String maskedMessage = NUMBER_PATTERN.matcher(URL_PATTERN.matcher(message).replaceAll("<url>")).replaceAll("#");
+        return failure.getClass().getSimpleName() + ": " + maskedMessage;
+    }
+}
@@ -0,0 +1,175 @@
+package com.hb.hbetl.jobEtl;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.hb.hbetl.HbEtl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Every job number already added to job_status, plus the etag of every job stat csv they were taken from, kept between
+ * runs as a single compressed object in s3. New jobs can then be found by diffing only the new or changed stat csvs
+ * against the index in memory, see {@link NewJobFinder}.
+ *
+ * Job numbers are held as a sorted int[] & stored as gzipped varint deltas, which for the dob's clustered job numbers
+ * takes a byte or two per job.
+ */
+public class JobNumberIndex {
+    public static final String S3_JOB_INDEX_KEY = "nyc.job-index/job_status.index";
+
+    private static final int INDEX_FORMAT_VERSION = 1;
+
+    private int[] jobNumbers;
+    private Map<String, String> indexedCsvEtagsByS3Key;
+
+    public JobNumberIndex() {
+        this(new int[0], new HashMap<>());
+    }
+
+    private JobNumberIndex(int[] sortedJobNumbers, Map<String, String> indexedCsvEtagsByS3Key) {
+        this.jobNumbers = sortedJobNumbers;
+        this.indexedCsvEtagsByS3Key = indexedCsvEtagsByS3Key;
+    }
+
+    /**
+     * @return the index stored in s3, null if there isn't one yet
+     */
+    public static JobNumberIndex load(AmazonS3 s3) throws IOException {
+        if (!s3.doesObjectExist(HbEtl.S3_BUCKET, S3_JOB_INDEX_KEY))
+            return null;
+
+        try (DataInputStream indexInput = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(s3.getObject(HbEtl.S3_BUCKET, S3_JOB_INDEX_KEY).getObjectContent())))) {
+
+            int formatVersion = indexInput.readInt();
+            if (formatVersion != INDEX_FORMAT_VERSION)
+                throw new IOException(String.format("Unsupported job number index version %d", formatVersion));
+
+            int csvCount = indexInput.readInt();
+            Map<String, String> indexedCsvEtagsByS3Key = new HashMap<>(csvCount * 2);
+            for (int i = 0; i < csvCount; i++) {
+                indexedCsvEtagsByS3Key.put(indexInput.readUTF(), indexInput.readUTF());
+            }
+
+            int[] jobNumbers = new int[indexInput.readInt()];
+            int jobNumber = 0;
+            for (int i = 0; i < jobNumbers.length; i++) {
+                jobNumber += readVarInt(indexInput);
+                jobNumbers[i] = jobNumber;
+            }
+
+            return new JobNumberIndex(jobNumbers, indexedCsvEtagsByS3Key);
+        }
+    }
+
+    public void save(AmazonS3 s3) throws IOException {
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        try (DataOutputStream indexOutput = new DataOutputStream(new GZIPOutputStream(index))) {
+            indexOutput.writeInt(INDEX_FORMAT_VERSION);
+
+            indexOutput.writeInt(indexedCsvEtagsByS3Key.size());
+            for (Map.Entry<String, String> csvEtag : indexedCsvEtagsByS3Key.entrySet()) {
+                indexOutput.writeUTF(csvEtag.getKey());
+                indexOutput.writeUTF(csvEtag.getValue());
+            }
+
+            indexOutput.writeInt(jobNumbers.length);
+            int previousJobNumber = 0;
+            for (int jobNumber : jobNumbers) {
+                writeVarInt(indexOutput, jobNumber - previousJobNumber);
+                previousJobNumber = jobNumber;
+            }
+        }
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("application/octet-stream");
+        metadata.setContentLength(index.size());
+
+        s3.putObject(HbEtl.S3_BUCKET, S3_JOB_INDEX_KEY, new ByteArrayInputStream(index.toByteArray()), metadata);
+    }
+
+    public int size() {
+        return jobNumbers.length;
+    }
+
+    public boolean contains(int jobNumber) {
+        return Arrays.binarySearch(jobNumbers, jobNumber) >= 0;
+    }
+
+    /**
+     * Adds the job numbers to the index
+     *
+     * @return the (sorted, distinct) job numbers which weren't already in the index
+     */
+    public JobNumberList addAll(JobNumberList jobNumbersToAdd) {
+        int[] candidates = jobNumbersToAdd.toArray();
+        Arrays.sort(candidates);
+
+        JobNumberList newJobNumbers = new JobNumberList();
+        for (int i = 0; i < candidates.length; i++) {
+            if ((i == 0 || candidates[i] != candidates[i - 1]) && !contains(candidates[i]))
+                newJobNumbers.add(candidates[i]);
+        }
+
+        if (newJobNumbers.isEmpty())
+            return newJobNumbers;
+
+        // merge the two sorted arrays
+        int[] added = newJobNumbers.toArray();
+        int[] merged = new int[jobNumbers.length + added.length];
+        int existingIndex = 0;
+        int addedIndex = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (addedIndex >= added.length || (existingIndex < jobNumbers.length && jobNumbers[existingIndex] < added[addedIndex]))
+                merged[i] = jobNumbers[existingIndex++];
+            else
+                merged[i] = added[addedIndex++];
+        }
+
+        jobNumbers = merged;
+        return newJobNumbers;
+    }
+
+    /**
+     * @return s3 key & etag of every job stat csv whose jobs are in the index
+     */
+    public Map<String, String> getIndexedCsvEtagsByS3Key() {
+        return indexedCsvEtagsByS3Key;
+    }
+
+    public void setIndexedCsvEtagsByS3Key(Map<String, String> indexedCsvEtagsByS3Key) {
+        this.indexedCsvEtagsByS3Key = new HashMap<>(indexedCsvEtagsByS3Key);
+    }
+
+    private static void writeVarInt(DataOutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        output.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("Malformed job number index");
+    }
+}
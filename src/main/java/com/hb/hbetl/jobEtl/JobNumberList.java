@@ -0,0 +1,147 @@
+package com.hb.hbetl.jobEtl;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.IntConsumer;
+
+/**
+ * Growable list of job numbers backed by an int[], so large sets of jobs (eg. a whole backlog) take 4 bytes a job
+ * rather than a boxed Integer plus a reference each. Batches are only boxed when they're handed to a lambda, see
+ * {@link #batches(int)}.
+ *
+ * Appends are thread safe, so several workers can collect their results into one list.
+ */
+public class JobNumberList {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] jobNumbers;
+    private int size;
+
+    public JobNumberList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public JobNumberList(int capacity) {
+        this.jobNumbers = new int[Math.max(capacity, 1)];
+    }
+
+    public static JobNumberList of(Collection<Integer> jobNumbers) {
+        JobNumberList jobNumberList = new JobNumberList(jobNumbers.size());
+        jobNumberList.addAll(jobNumbers);
+        return jobNumberList;
+    }
+
+    public synchronized void add(int jobNumber) {
+        ensureCapacity(size + 1);
+        jobNumbers[size++] = jobNumber;
+    }
+
+    public synchronized void addAll(Collection<Integer> jobNumbers) {
+        ensureCapacity(size + jobNumbers.size());
+        for (Integer jobNumber : jobNumbers) {
+            this.jobNumbers[size++] = jobNumber;
+        }
+    }
+
+    public void addAll(JobNumberList jobNumbers) {
+        int[] other = jobNumbers.toArray();
+
+        synchronized (this) {
+            ensureCapacity(size + other.length);
+            System.arraycopy(other, 0, this.jobNumbers, size, other.length);
+            size += other.length;
+        }
+    }
+
+    public synchronized int get(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+        return jobNumbers[index];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized void sort() {
+        Arrays.sort(jobNumbers, 0, size);
+    }
+
+    /**
+     * @return true if the job is in the list, the list must be sorted (see {@link #sort()})
+     */
+    public synchronized boolean containsSorted(int jobNumber) {
+        return Arrays.binarySearch(jobNumbers, 0, size, jobNumber) >= 0;
+    }
+
+    public synchronized int[] toArray() {
+        return Arrays.copyOf(jobNumbers, size);
+    }
+
+    public void forEach(IntConsumer action) {
+        for (int jobNumber : toArray()) {
+            action.accept(jobNumber);
+        }
+    }
+
+    /**
+     * @return boxed copy of the job numbers from fromIndex (inclusive) to toIndex (exclusive)
+     */
+    public synchronized List<Integer> toList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+            throw new IndexOutOfBoundsException(String.format("Range: %d-%d, Size: %d", fromIndex, toIndex, size));
+
+        List<Integer> jobNumberList = new ArrayList<>(toIndex - fromIndex);
+        for (int i = fromIndex; i < toIndex; i++) {
+            jobNumberList.add(jobNumbers[i]);
+        }
+
+        return jobNumberList;
+    }
+
+    /**
+     * Splits the list into consecutive batches (the last may be smaller), each batch is boxed only when it's fetched
+     */
+    public List<List<Integer>> batches(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be at least 1");
+
+        int batchCount = (size() + batchSize - 1) / batchSize;
+        return new Batches(batchCount, batchSize);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > jobNumbers.length)
+            jobNumbers = Arrays.copyOf(jobNumbers, Math.max(capacity, jobNumbers.length + (jobNumbers.length >> 1)));
+    }
+
+    private class Batches extends AbstractList<List<Integer>> implements RandomAccess {
+        private final int batchCount;
+        private final int batchSize;
+
+        Batches(int batchCount, int batchSize) {
+            this.batchCount = batchCount;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public List<Integer> get(int index) {
+            int fromIndex = index * batchSize;
+            return toList(fromIndex, Math.min(fromIndex + batchSize, JobNumberList.this.size()));
+        }
+
+        @Override
+        public int size() {
+            return batchCount;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.hb.hbetl.jobEtl;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.hb.hbetl.HbEtl;
+import com.hb.hbetl.jobEtl.lambdas.JobBatchResult;
+import com.hb.hbetl.jobEtl.lambdas.JobFailureException;
+import com.hb.hbetl.jobEtl.lambdas.ScrapeJobPagesLambda;
+import com.hb.hbetl.lambdaInvokers.LambdaInvoker;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Rescrapes every job page archive in s3 (see {@link JobPageStore#putArchive(Map)}) into redshift, one lambda
+ * invocation per archive. Returns the list of successfully processed jobNumbers
+ *
+ * At most {@link #setMaxInFlight(int)} archives are scraped at once. Each one is written to redshift in a single
+ * transaction, so the default is kept low to avoid piling up concurrent commits.
+ */
+public class JobPageArchiveScraper implements Callable<JobNumberList> {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private static final Logger LOGGER = LogManager.getLogger(JobPageArchiveScraper.class);
+
+    private final AmazonS3 s3;
+    private final LambdaInvoker lambdaInvoker;
+    private final AtomicInteger progressCounter;
+
+    private JobFailures processingFailures;
+    private Map<String, Exception> archiveFailures;
+
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    public JobPageArchiveScraper(AmazonS3 s3, LambdaInvoker lambdaInvoker) {
+        this.s3 = s3;
+        this.lambdaInvoker = lambdaInvoker;
+        this.progressCounter = new AtomicInteger();
+    }
+
+    @Override
+    public JobNumberList call() throws Exception {
+        processingFailures = new JobFailures();
+        archiveFailures = new ConcurrentHashMap<>();
+
+        List<String> archiveS3Keys = getArchiveS3Keys();
+        LOGGER.info("Found " + archiveS3Keys.size() + " job page archives");
+
+        JobNumberList processedJobNumbers = new JobNumberList();
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxInFlight);
+        try {
+            List<Future<?>> archiveResults = archiveS3Keys.stream()
+                    .map(archiveS3Key -> executor.submit(() -> scrapeJobPageArchive(archiveS3Key, archiveS3Keys.size(), processedJobNumbers)))
+                    .collect(Collectors.toList());
+
+            for (Future<?> archiveResult : archiveResults) {
+                archiveResult.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return processedJobNumbers;
+    }
+
+    public JobPageArchiveScraper setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    private void scrapeJobPageArchive(String archiveS3Key, int archiveCount, JobNumberList processedJobNumbers) {
+        try {
+            JobBatchResult batchResult = lambdaInvoker.getFunction(ScrapeJobPagesLambda.class).scrapeJobPageArchive(archiveS3Key);
+
+            processedJobNumbers.addAll(batchResult.completedJobNumbers);
+            batchResult.failuresByJobNumber
+                    .forEach((jobNumber, failure) -> processingFailures.add(jobNumber, new JobFailureException(jobNumber, failure)));
+        } catch (Exception e) {
+            archiveFailures.put(archiveS3Key, e);
+        }
+
+        LOGGER.debug("Progress: {}/{}\r", progressCounter.incrementAndGet(), archiveCount);
+    }
+
+    private List<String> getArchiveS3Keys() {
+        List<String> archiveS3Keys = new ArrayList<>();
+
+        ObjectListing listing = s3.listObjects(HbEtl.S3_BUCKET, JobPageStore.S3_JOB_ARCHIVE_PREFIX + "/");
+        while (true) {
+            listing.getObjectSummaries().forEach(summary -> archiveS3Keys.add(summary.getKey()));
+
+            if (!listing.isTruncated())
+                return archiveS3Keys;
+
+            listing = s3.listNextBatchOfObjects(listing);
+        }
+    }
+
+    public JobFailures getFailures() {
+        return processingFailures;
+    }
+
+    /**
+     * @return failures of whole archives (eg. the archive couldn't be read), keyed by s3 key
+     */
+    public Map<String, Exception> getArchiveFailures() {
+        return archiveFailures;
+    }
+}
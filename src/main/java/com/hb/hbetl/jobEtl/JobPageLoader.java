@@ -1,72 +1,224 @@
 package com.hb.hbetl.jobEtl;
 
-import com.amazonaws.services.lambda.AWSLambda;
-import com.amazonaws.services.lambda.invoke.LambdaInvokerFactory;
+import com.hb.hbetl.jobEtl.lambdas.JobBatchRequest;
+import com.hb.hbetl.jobEtl.lambdas.JobBatchResult;
+import com.hb.hbetl.jobEtl.lambdas.JobFailureException;
 import com.hb.hbetl.jobEtl.lambdas.LoadJobPageLambda;
+import com.hb.hbetl.lambdaInvokers.LambdaInvoker;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
  * Loads the jobPages into S3. Returns the list of successfully processed jobNumbers
+ *
+ * Job numbers are sent to the lambda in batches (see {@link #setBatchSize(int)}) to spread the per invocation overhead,
+ * with at most {@link #setMaxInFlight(int)} batches loading at once on the loader's own threads (the handler for loaded
+ * jobs may block, so they can't run on the common fork join pool).
+ *
+ * Every batch is paced by one {@link AdaptiveRateLimiter} shared by all the workers, which backs off whenever bis
+ * throttles a batch & speeds back up as pages load. Each invocation is sent a whole batch along with its share of the
+ * current rate (see {@link #getPagesPerSecondPerInvocation()}), & the lambda spaces its fetches out to match, so bursts
+ * stay within the rate without splitting the batch's job status writes across invocations. Throttled jobs are retried
+ * (at the lower rate) a few times before they're recorded as failures.
  */
-public class JobPageLoader implements Callable<List<Integer>> {
+public class JobPageLoader implements Callable<JobNumberList> {
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10;
+    public static final int DEFAULT_MAX_THROTTLE_RETRIES = 3;
+    public static final double DEFAULT_INITIAL_PAGES_PER_SECOND = 5;
+    public static final double DEFAULT_MIN_PAGES_PER_SECOND = 0.5;
+    public static final double DEFAULT_MAX_PAGES_PER_SECOND = 50;
+
+    /**
+     * Called with the jobs of each batch as soon as they've been loaded, eg. to pass them on to the next stage
+     */
+    public interface LoadedJobsHandler {
+        void handleLoadedJobs(List<Integer> loadedJobNumbers) throws InterruptedException;
+    }
+
     private static final Logger LOGGER = LogManager.getLogger(JobPageLoader.class);
 
-    private final List<Integer> jobNumbers;
-    private final AWSLambda lambda;
+    private final JobNumberList jobNumbers;
+    private final LambdaInvoker lambdaInvoker;
     private final Proxy proxy;
     private final AtomicInteger progressCounter;
 
-    private Map<Integer, Exception> failedJobs;
+    private final JobFailures failedJobs;
 
-    public JobPageLoader(List<Integer> jobNumbers, AWSLambda lambda) {
-        this(jobNumbers, lambda, null);
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int maxThrottleRetries = DEFAULT_MAX_THROTTLE_RETRIES;
+    private AdaptiveRateLimiter rateLimiter = createDefaultRateLimiter();
+    private LoadedJobsHandler loadedJobsHandler;
+
+    public JobPageLoader(JobNumberList jobNumbers, LambdaInvoker lambdaInvoker) {
+        this(jobNumbers, lambdaInvoker, null);
     }
 
-    public JobPageLoader(List<Integer> jobNumbers, AWSLambda lambda, String proxyUrl) {
+    public JobPageLoader(JobNumberList jobNumbers, LambdaInvoker lambdaInvoker, String proxyUrl) {
         this.jobNumbers = jobNumbers;
-        this.lambda = lambda;
+        this.lambdaInvoker = lambdaInvoker;
         this.proxy = (proxyUrl == null) ? null : new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyUrl, 80));
         this.progressCounter = new AtomicInteger();
+        this.failedJobs = new JobFailures();
+    }
+
+    /**
+     * @return a limiter with the default rates, eg. to share between the loaders of several chunks so the rate they've
+     * settled on carries over (see {@link #setRateLimiter(AdaptiveRateLimiter)})
+     */
+    public static AdaptiveRateLimiter createDefaultRateLimiter() {
+        return new AdaptiveRateLimiter(DEFAULT_INITIAL_PAGES_PER_SECOND, DEFAULT_MIN_PAGES_PER_SECOND, DEFAULT_MAX_PAGES_PER_SECOND, 1);
     }
 
     @Override
-    public List<Integer> call() throws Exception {
-        failedJobs = new ConcurrentHashMap<>();
+    public JobNumberList call() throws Exception {
+        JobNumberList loadedJobNumbers = new JobNumberList(jobNumbers.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxInFlight);
+        try {
+            List<Future<?>> batchResults = jobNumbers.batches(batchSize).stream()
+                    .map(jobNumberBatch -> executor.submit(() -> loadJobPages(jobNumberBatch, loadedJobNumbers)))
+                    .collect(Collectors.toList());
+
+            for (Future<?> batchResult : batchResults) {
+                batchResult.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
 
-        return jobNumbers.parallelStream()
-                .map(this::loadJobPage)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+        return loadedJobNumbers;
     }
 
-    public Map<Integer, Exception> getFailures() {
+    public JobFailures getFailures() {
         return failedJobs;
     }
 
-    private Integer loadJobPage(Integer jobNumber) {
-        Integer result = null;
-        try {
-            result = LambdaInvokerFactory.builder()
-                .lambdaClient(lambda)
-                .build(LoadJobPageLambda.class)
-                .loadJobPage(jobNumber);
-        } catch (Exception e) {
-            failedJobs.put(jobNumber, e);
+    public JobPageLoader setBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be at least 1");
+
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public JobPageLoader setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public JobPageLoader setMaxThrottleRetries(int maxThrottleRetries) {
+        if (maxThrottleRetries < 0)
+            throw new IllegalArgumentException("maxThrottleRetries can't be negative");
+
+        this.maxThrottleRetries = maxThrottleRetries;
+        return this;
+    }
+
+    public JobPageLoader setRateLimiter(AdaptiveRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    public JobPageLoader setLoadedJobsHandler(LoadedJobsHandler loadedJobsHandler) {
+        this.loadedJobsHandler = loadedJobsHandler;
+        return this;
+    }
+
+    public AdaptiveRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    private void loadJobPages(List<Integer> jobNumberBatch, JobNumberList loadedJobNumbers) {
+        List<Integer> remainingJobNumbers = jobNumberBatch;
+        int throttleRetries = 0;
+
+        while (!remainingJobNumbers.isEmpty()) {
+            if (Thread.currentThread().isInterrupted()) {
+                failedJobs.addAll(remainingJobNumbers, new InterruptedException("Interrupted before loading"));
+                break;
+            }
+
+            JobBatchResult batchResult;
+            try {
+                JobBatchRequest request = new JobBatchRequest(remainingJobNumbers, getPagesPerSecondPerInvocation());
+                batchResult = lambdaInvoker.getFunction(LoadJobPageLambda.class).loadJobPages(request);
+            } catch (Exception e) {
+                // jobs loaded by earlier (throttled or deferred) invocations of the batch are already recorded
+                failedJobs.addAll(remainingJobNumbers, e);
+                break;
+            }
+
+            loadedJobNumbers.addAll(batchResult.completedJobNumbers);
+            batchResult.failuresByJobNumber
+                    .forEach((jobNumber, failure) -> failedJobs.add(jobNumber, new JobFailureException(jobNumber, failure)));
+            rateLimiter.onSuccess(batchResult.completedJobNumbers.size());
+
+            List<Integer> throttledJobNumbers = batchResult.getThrottledJobNumbers();
+            List<Integer> deferredJobNumbers = batchResult.getDeferredJobNumbers();
+            remainingJobNumbers = new ArrayList<>(throttledJobNumbers.size() + deferredJobNumbers.size());
+            remainingJobNumbers.addAll(throttledJobNumbers);
+            remainingJobNumbers.addAll(deferredJobNumbers);
+
+            if (!handleLoadedJobs(batchResult.completedJobNumbers)) {
+                failedJobs.addAll(remainingJobNumbers, new InterruptedException("Interrupted before loading"));
+                break;
+            }
+
+            if (throttledJobNumbers.isEmpty())
+                continue;
+
+            rateLimiter.onThrottle();
+            LOGGER.info("Throttled by bis, {} jobs left in batch, rate now {}/s", remainingJobNumbers.size(), rateLimiter.getRatePerSecond());
+
+            if (throttleRetries++ >= maxThrottleRetries) {
+                remainingJobNumbers.forEach(jobNumber -> failedJobs.add(jobNumber, new JobFailureException(jobNumber, "Throttled")));
+                break;
+            }
         }
 
-        LOGGER.debug("Progress: {}/{}\r", progressCounter.incrementAndGet(), jobNumbers.size());
+        LOGGER.debug("Progress: {}/{}\r", progressCounter.addAndGet(jobNumberBatch.size()), jobNumbers.size());
+    }
+
+    /**
+     * @return the invocation's share of the current rate, so all the batches in flight together stay within it
+     */
+    private double getPagesPerSecondPerInvocation() {
+        return rateLimiter.getRatePerSecond() / maxInFlight;
+    }
+
+    /**
+     * Passes the loaded jobs on to the handler. They're already loaded (& marked as downloaded), so if the handler is
+     * interrupted they're left for a later run to scrape rather than recorded as load failures
+     *
+     * @return false if the handler was interrupted
+     */
+    private boolean handleLoadedJobs(List<Integer> loadedJobs) {
+        if (loadedJobsHandler == null || loadedJobs.isEmpty())
+            return true;
 
-        return result;
+        try {
+            loadedJobsHandler.handleLoadedJobs(loadedJobs);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Interrupted passing on {} loaded jobs, they'll be scraped by a later run", loadedJobs.size());
+            return false;
+        }
     }
 }
@@ -7,8 +7,14 @@ import com.hb.hbetl.jobEtl.parsers.OwnerEmailFieldParser;
 import com.hb.hbetl.jobEtl.validators.IsNotThrottlePageValidator;
 import com.hb.hbetl.jobEtl.validators.JobPageValidationException;
 import com.hb.hbetl.jobEtl.validators.JobPageValidator;
+import com.hb.hbetl.HbEtl;
 import org.jsoup.nodes.Document;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -16,7 +22,13 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 public class JobPageParser {
+    /**
+     * Batches smaller than this are inserted directly, larger ones are staged in s3 & loaded with a copy
+     */
+    public static final int MIN_COPY_BATCH_SIZE = 20;
+
     private static final String TABLE_NAME = "job_parsed";
+    private static final char COPY_DATA_DELIMITER = '|';
     private static final List<JobPageValidator> VALIDATORS = ImmutableList.of(new IsNotThrottlePageValidator());
     private static final List<JobFieldParser> FIELD_PARSERS = ImmutableList.of(new OwnerEmailFieldParser());
 
@@ -40,12 +52,21 @@ public class JobPageParser {
 
     private String generateInsertValuesSql() {
         String sql = "(" + jobNumber + ",'";
-        sql += FIELD_PARSERS.stream().map(parsedValues::get).collect(Collectors.joining("', '"));
+        sql += FIELD_PARSERS.stream().map(parsedValues::get).map(JobPageParser::escapeSqlString).collect(Collectors.joining("', '"));
         sql += "')";
 
         return sql;
     }
 
+    private String generateCopyDataRow() {
+        StringBuilder row = new StringBuilder().append(jobNumber);
+        for (JobFieldParser fieldParser : FIELD_PARSERS) {
+            row.append(COPY_DATA_DELIMITER).append(escapeCopyDataValue(parsedValues.get(fieldParser)));
+        }
+
+        return row.append('\n').toString();
+    }
+
     public static String generateInsertSql(JobPageParser parser) {
         return generateInsertSql(Collections.singletonList(parser));
     }
@@ -59,6 +80,34 @@ public class JobPageParser {
         return insertSql;
     }
 
+    /**
+     * Writes the parsed data in the format expected by {@link #generateCopySql(String)}. Gzip compression is left to
+     * the caller
+     */
+    public static void writeCopyData(List<JobPageParser> parsers, OutputStream output) throws IOException {
+        Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+        for (JobPageParser parser : parsers) {
+            writer.write(parser.generateCopyDataRow());
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * @param s3Key key of gzipped {@link #writeCopyData} output
+     */
+    public static String generateCopySql(String s3Key) {
+        String columns = FIELD_PARSERS.stream().map(JobFieldParser::getFieldName).collect(Collectors.joining(", "));
+
+        return String.format("copy %s (job_num, %s) from 's3://%s/%s' credentials '%s' delimiter '%s' escape gzip",
+                TABLE_NAME,
+                columns,
+                HbEtl.S3_BUCKET,
+                s3Key,
+                HbEtl.REDSHIFT_CREDENTIALS,
+                COPY_DATA_DELIMITER);
+    }
+
     public static String getCreateTableSql() {
         String columnDefinitions = FIELD_PARSERS.stream()
                 .map(JobFieldParser::getSqlColumnDefinition)
@@ -66,4 +115,27 @@ public class JobPageParser {
 
         return "create table if not exists " + TABLE_NAME + " (job_num integer not null, " + columnDefinitions + ")";
     }
+
+    private static String escapeSqlString(String value) {
+        return value == null ? null : value.replace("\\", "\\\\").replace("'", "''");
+    }
+
+    /**
+     * Escapes delimiters, line breaks & backslashes for a copy with the escape option
+     */
+    private static String escapeCopyDataValue(String value) {
+        if (value == null)
+            return "";
+
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == COPY_DATA_DELIMITER || c == '\\' || c == '\n' || c == '\r')
+                escaped.append('\\');
+
+            escaped.append(c);
+        }
+
+        return escaped.toString();
+    }
 }
@@ -1,64 +1,91 @@
 package com.hb.hbetl.jobEtl;
 
-import com.amazonaws.services.lambda.AWSLambda;
-import com.amazonaws.services.lambda.invoke.LambdaInvokerFactory;
+import com.hb.hbetl.jobEtl.lambdas.JobBatchResult;
+import com.hb.hbetl.jobEtl.lambdas.JobFailureException;
 import com.hb.hbetl.jobEtl.lambdas.ScrapeJobPagesLambda;
+import com.hb.hbetl.lambdaInvokers.LambdaInvoker;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 /**
  * Scrapes job data from s3 into redshift. Returns the list of successfully processed jobNumbers
+ *
+ * Job numbers are sent to the lambda in batches (see {@link #setBatchSize(int)}) so each batch is written to redshift
+ * in a single transaction
  */
-public class JobPageScraper implements Callable<List<Integer>> {
+public class JobPageScraper implements Callable<JobNumberList> {
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
     private static final Logger LOGGER = LogManager.getLogger(JobPageScraper.class);
 
-    private final List<Integer> jobNumbers;
-    private final AWSLambda lambda;
+    private final JobNumberList jobNumbers;
+    private final int jobCount;
+    private final LambdaInvoker lambdaInvoker;
     private final AtomicInteger progressCounter;
 
-    private Map<Integer, Exception> processingFailures;
+    private final JobFailures processingFailures;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    public JobPageScraper(JobNumberList jobNumbers, LambdaInvoker lambdaInvoker) {
+        this(jobNumbers, jobNumbers.size(), lambdaInvoker);
+    }
 
-    public JobPageScraper(List<Integer> jobNumbers, AWSLambda lambda) {
+    /**
+     * @param jobCount how many jobs will be scraped, if they're passed to {@link #scrapeJobPages(List)} batch by batch
+     *                 rather than given up front
+     */
+    JobPageScraper(JobNumberList jobNumbers, int jobCount, LambdaInvoker lambdaInvoker) {
         this.jobNumbers = jobNumbers;
-        this.lambda = lambda;
+        this.jobCount = jobCount;
+        this.lambdaInvoker = lambdaInvoker;
         this.progressCounter = new AtomicInteger();
+        this.processingFailures = new JobFailures();
     }
 
     @Override
-    public List<Integer> call() throws Exception {
-        processingFailures = new ConcurrentHashMap<>();
+    public JobNumberList call() throws Exception {
+        JobNumberList processedJobNumbers = new JobNumberList(jobNumbers.size());
+        jobNumbers.batches(batchSize)
+                .forEach(jobNumberBatch -> processedJobNumbers.addAll(scrapeJobPages(jobNumberBatch)));
 
-        return jobNumbers.stream()
-                .map(this::scrapeJobPage)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+        return processedJobNumbers;
     }
 
-    private Integer scrapeJobPage(Integer jobNumber) {
-        Integer result = null;
+    public JobPageScraper setBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be at least 1");
+
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Scrapes a single batch, recording its failures. Used directly by {@link JobPipeline} as loaded jobs arrive
+     */
+    List<Integer> scrapeJobPages(List<Integer> jobNumberBatch) {
+        List<Integer> result = Collections.emptyList();
         try {
-            result = LambdaInvokerFactory.builder()
-                    .lambdaClient(lambda)
-                    .build(ScrapeJobPagesLambda.class)
-                    .scrapeJobPage(jobNumber);
+            JobBatchResult batchResult = lambdaInvoker.getFunction(ScrapeJobPagesLambda.class).scrapeJobPages(jobNumberBatch);
+
+            result = batchResult.completedJobNumbers;
+            batchResult.failuresByJobNumber
+                    .forEach((jobNumber, failure) -> processingFailures.add(jobNumber, new JobFailureException(jobNumber, failure)));
         } catch (Exception e) {
-            processingFailures.put(jobNumber, e);
+            processingFailures.addAll(jobNumberBatch, e);
         }
 
-        LOGGER.debug("Progress: {}/{}\r", progressCounter.incrementAndGet(), jobNumbers.size());
+        LOGGER.debug("Progress: {}/{}\r", progressCounter.addAndGet(jobNumberBatch.size()), jobCount);
 
         return result;
     }
 
-    public Map<Integer, Exception> getFailures() {
+    public JobFailures getFailures() {
         return processingFailures;
     }
 }
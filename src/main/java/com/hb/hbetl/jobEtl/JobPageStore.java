@@ -0,0 +1,151 @@
+package com.hb.hbetl.jobEtl;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.hb.hbetl.HbEtl;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads & writes raw job pages in s3.
+ *
+ * Each page is stored gzipped (with a gzip Content-Encoding) under {@link JobEtl#getS3KeyForForJobNum(Integer)}, pages
+ * stored before compression was added are still read as plain html. Batches of pages can also be packed into a single
+ * archive object so the whole corpus can be reprocessed with a few large reads, see {@link #putArchive(Map)}.
+ */
+public class JobPageStore {
+    public static final String S3_JOB_ARCHIVE_PREFIX = "nyc.jobs-archives";
+    public static final String GZIP_CONTENT_ENCODING = "gzip";
+
+    private static final int ARCHIVE_FORMAT_VERSION = 1;
+
+    public interface ArchivedJobPageHandler {
+        void handleJobPage(int jobNumber, InputStream jobPageInput) throws IOException;
+    }
+
+    private final AmazonS3 s3;
+
+    public JobPageStore(AmazonS3 s3) {
+        this.s3 = s3;
+    }
+
+    /**
+     * Gzips the page & puts it into s3
+     *
+     * @return the gzipped page, which can be packed into an archive with {@link #putArchive(Map)}
+     */
+    public byte[] putJobPage(int jobNumber, InputStream jobPageInput) throws IOException {
+        ByteArrayOutputStream gzippedPage = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutput = new GZIPOutputStream(gzippedPage)) {
+            IOUtils.copy(jobPageInput, gzipOutput);
+        }
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("text/html");
+        metadata.setContentEncoding(GZIP_CONTENT_ENCODING);
+        metadata.setContentLength(gzippedPage.size());
+
+        byte[] gzippedPageBytes = gzippedPage.toByteArray();
+        s3.putObject(HbEtl.S3_BUCKET, JobEtl.getS3KeyForForJobNum(jobNumber), new ByteArrayInputStream(gzippedPageBytes), metadata);
+
+        return gzippedPageBytes;
+    }
+
+    /**
+     * @return the page's html, decompressed if it was stored gzipped
+     */
+    public InputStream openJobPage(int jobNumber) throws IOException {
+        S3Object s3Object = s3.getObject(HbEtl.S3_BUCKET, JobEtl.getS3KeyForForJobNum(jobNumber));
+        InputStream s3ObjectInput = s3Object.getObjectContent();
+
+        if (!GZIP_CONTENT_ENCODING.equals(s3Object.getObjectMetadata().getContentEncoding()))
+            return s3ObjectInput;
+
+        try {
+            return new GZIPInputStream(s3ObjectInput);
+        } catch (IOException e) {
+            s3ObjectInput.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Packs already gzipped pages into one archive object. The archive starts with an index of each job's offset &
+     * length, followed by the gzipped pages back to back.
+     *
+     * @return s3 key of the archive
+     */
+    public String putArchive(Map<Integer, byte[]> gzippedPagesByJobNumber) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (DataOutputStream archiveOutput = new DataOutputStream(archive)) {
+            archiveOutput.writeInt(ARCHIVE_FORMAT_VERSION);
+            archiveOutput.writeInt(gzippedPagesByJobNumber.size());
+
+            long offset = 0;
+            for (Map.Entry<Integer, byte[]> page : gzippedPagesByJobNumber.entrySet()) {
+                archiveOutput.writeInt(page.getKey());
+                archiveOutput.writeLong(offset);
+                archiveOutput.writeInt(page.getValue().length);
+                offset += page.getValue().length;
+            }
+
+            for (byte[] gzippedPage : gzippedPagesByJobNumber.values()) {
+                archiveOutput.write(gzippedPage);
+            }
+        }
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("application/octet-stream");
+        metadata.setContentLength(archive.size());
+
+        int firstJobNumber = gzippedPagesByJobNumber.keySet().stream().min(Integer::compare).orElse(0);
+        String archiveS3Key = String.format("%s/jobs%d_%d_%d.archive", S3_JOB_ARCHIVE_PREFIX,
+                firstJobNumber, gzippedPagesByJobNumber.size(), System.currentTimeMillis());
+        s3.putObject(HbEtl.S3_BUCKET, archiveS3Key, new ByteArrayInputStream(archive.toByteArray()), metadata);
+
+        return archiveS3Key;
+    }
+
+    /**
+     * Reads every page in the archive (with a single get), handing each page's decompressed html to the handler
+     */
+    public void readArchive(String archiveS3Key, ArchivedJobPageHandler handler) throws IOException {
+        S3Object s3Object = s3.getObject(HbEtl.S3_BUCKET, archiveS3Key);
+
+        try (DataInputStream archiveInput = new DataInputStream(new BufferedInputStream(s3Object.getObjectContent()))) {
+            int formatVersion = archiveInput.readInt();
+            if (formatVersion != ARCHIVE_FORMAT_VERSION)
+                throw new IOException(String.format("Unsupported job page archive version %d in %s", formatVersion, archiveS3Key));
+
+            int pageCount = archiveInput.readInt();
+            List<int[]> index = new ArrayList<>(pageCount);
+            for (int i = 0; i < pageCount; i++) {
+                int jobNumber = archiveInput.readInt();
+                archiveInput.readLong(); // offset, pages are read in order so only the lengths are needed
+                index.add(new int[] {jobNumber, archiveInput.readInt()});
+            }
+
+            for (int[] page : index) {
+                byte[] gzippedPage = new byte[page[1]];
+                archiveInput.readFully(gzippedPage);
+
+                try (InputStream jobPageInput = new GZIPInputStream(new ByteArrayInputStream(gzippedPage))) {
+                    handler.handleJobPage(page[0], jobPageInput);
+                }
+            }
+        }
+    }
+}
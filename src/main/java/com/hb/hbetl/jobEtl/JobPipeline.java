@@ -0,0 +1,192 @@
+package com.hb.hbetl.jobEtl;
+
+import com.hb.hbetl.lambdaInvokers.LambdaInvoker;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads & scrapes jobs as a pipeline rather than as two bulk stages. Each batch the {@link JobPageLoader} finishes is
+ * put on a bounded queue which the scrape workers drain into {@link JobPageScraper} batches, so jobs are scraped while
+ * the rest are still downloading. When the scrapers fall behind the queue fills up & the loader blocks until there's
+ * room again. Returns the list of successfully processed (loaded & scraped) jobNumbers
+ *
+ * Jobs which were loaded by an earlier run but never scraped are queued for scraping before loading starts.
+ */
+public class JobPipeline implements Callable<JobNumberList> {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    public static final int DEFAULT_SCRAPE_WORKERS = 1;
+    public static final long DEFAULT_SCRAPE_BATCH_WAIT_MILLIS = 5 * 1000;
+
+    private static final Logger LOGGER = LogManager.getLogger(JobPipeline.class);
+
+    private final JobNumberList jobNumbersToScrape;
+
+    private final JobPageLoader jobPageLoader;
+    private final JobPageScraper jobPageScraper;
+
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int scrapeWorkers = DEFAULT_SCRAPE_WORKERS;
+    private int scrapeBatchSize = JobPageScraper.DEFAULT_BATCH_SIZE;
+    private long scrapeBatchWaitMillis = DEFAULT_SCRAPE_BATCH_WAIT_MILLIS;
+
+    private JobNumberList loadedJobNumbers = new JobNumberList();
+
+    private volatile boolean loadingFinished;
+
+    /**
+     * @param jobNumbersToLoad   jobs to load then scrape
+     * @param jobNumbersToScrape jobs which are already loaded & only need scraping
+     */
+    public JobPipeline(JobNumberList jobNumbersToLoad, JobNumberList jobNumbersToScrape, LambdaInvoker lambdaInvoker) {
+        this.jobNumbersToScrape = jobNumbersToScrape;
+
+        this.jobPageLoader = new JobPageLoader(jobNumbersToLoad, lambdaInvoker);
+        this.jobPageScraper = new JobPageScraper(new JobNumberList(), jobNumbersToScrape.size() + jobNumbersToLoad.size(), lambdaInvoker);
+    }
+
+    /**
+     * @param queueCapacity how many loaded jobs can wait to be scraped before loading blocks
+     */
+    public JobPipeline setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1)
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public JobPipeline setScrapeWorkers(int scrapeWorkers) {
+        if (scrapeWorkers < 1)
+            throw new IllegalArgumentException("scrapeWorkers must be at least 1");
+
+        this.scrapeWorkers = scrapeWorkers;
+        return this;
+    }
+
+    public JobPipeline setScrapeBatchSize(int scrapeBatchSize) {
+        if (scrapeBatchSize < 1)
+            throw new IllegalArgumentException("scrapeBatchSize must be at least 1");
+
+        this.scrapeBatchSize = scrapeBatchSize;
+        return this;
+    }
+
+    /**
+     * @param scrapeBatchWaitMillis how long a scrape worker waits for a batch to fill up before scraping what it has
+     */
+    public JobPipeline setScrapeBatchWaitMillis(long scrapeBatchWaitMillis) {
+        this.scrapeBatchWaitMillis = scrapeBatchWaitMillis;
+        return this;
+    }
+
+    public JobPageLoader getJobPageLoader() {
+        return jobPageLoader;
+    }
+
+    public JobPageScraper getJobPageScraper() {
+        return jobPageScraper;
+    }
+
+    public JobNumberList getLoadedJobNumbers() {
+        return loadedJobNumbers;
+    }
+
+    @Override
+    public JobNumberList call() throws Exception {
+        BlockingQueue<Integer> loadedJobQueue = new ArrayBlockingQueue<>(queueCapacity);
+        jobPageLoader.setLoadedJobsHandler(loadedJobs -> {
+            for (Integer jobNumber : loadedJobs) {
+                loadedJobQueue.put(jobNumber);
+            }
+        });
+
+        loadingFinished = false;
+        ExecutorService executor = Executors.newFixedThreadPool(scrapeWorkers + 1);
+        try {
+            List<Future<JobNumberList>> scrapeResults = new ArrayList<>(scrapeWorkers);
+            for (int i = 0; i < scrapeWorkers; i++) {
+                scrapeResults.add(executor.submit(() -> scrape(loadedJobQueue)));
+            }
+
+            Future<JobNumberList> loadResult = executor.submit(() -> {
+                try {
+                    for (int jobNumber : jobNumbersToScrape.toArray()) {
+                        loadedJobQueue.put(jobNumber);
+                    }
+
+                    return jobPageLoader.call();
+                } finally {
+                    loadingFinished = true;
+                }
+            });
+
+            loadedJobNumbers = loadResult.get();
+
+            JobNumberList processedJobNumbers = new JobNumberList();
+            for (Future<JobNumberList> scrapeResult : scrapeResults) {
+                processedJobNumbers.addAll(scrapeResult.get());
+            }
+
+            return processedJobNumbers;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Scrapes batches off the queue until loading has finished & the queue is empty
+     */
+    private JobNumberList scrape(BlockingQueue<Integer> loadedJobQueue) throws InterruptedException {
+        JobNumberList processedJobNumbers = new JobNumberList();
+
+        while (true) {
+            List<Integer> batch = takeBatch(loadedJobQueue);
+            if (batch.isEmpty()) {
+                if (loadingFinished && loadedJobQueue.isEmpty())
+                    return processedJobNumbers;
+
+                continue;
+            }
+
+            processedJobNumbers.addAll(jobPageScraper.scrapeJobPages(batch));
+        }
+    }
+
+    /**
+     * @return up to a batch of jobs, waiting at most {@link #scrapeBatchWaitMillis} for the batch to fill up. Returns
+     * early once loading has finished, as no more jobs will arrive
+     */
+    private List<Integer> takeBatch(BlockingQueue<Integer> loadedJobQueue) throws InterruptedException {
+        List<Integer> batch = new ArrayList<>(scrapeBatchSize);
+        long deadline = System.currentTimeMillis() + scrapeBatchWaitMillis;
+
+        while (batch.size() < scrapeBatchSize) {
+            loadedJobQueue.drainTo(batch, scrapeBatchSize - batch.size());
+            if (batch.size() >= scrapeBatchSize || loadingFinished)
+                break;
+
+            long waitMillis = Math.min(deadline - System.currentTimeMillis(), 100);
+            if (waitMillis <= 0)
+                break;
+
+            Integer jobNumber = loadedJobQueue.poll(waitMillis, TimeUnit.MILLISECONDS);
+            if (jobNumber != null)
+                batch.add(jobNumber);
+        }
+
+        if (!batch.isEmpty())
+            LOGGER.debug("Scraping batch of {} jobs", batch.size());
+
+        return batch;
+    }
+}
@@ -0,0 +1,260 @@
+package com.hb.hbetl.jobEtl;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.hb.hbetl.HbEtl;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.hb.hbetl.jobEtl.JobEtl.REDSHIFT_JOB_STATUS_TABLE;
+
+/**
+ * Batches job status changes so they're applied to redshift with a few set based statements rather than a single row
+ * update per job.
+ *
+ * Recorded transitions are buffered until {@link #flush()} (or {@link #close()}) is called, then written as a staging
+ * object to s3, copied into a temp table & applied to job_status with one update...from per transition type. By default
+ * they're never flushed on their own, so a caller writing the data the statuses describe can stage the statuses first &
+ * apply both in one transaction with {@link #flush(List)}. Callers which only record statuses (eg. errors) can bound
+ * the buffer with {@link #setMaxPendingRows(int)} & {@link #setFlushIntervalMillis(long)} instead. If a flush fails its
+ * transitions are dropped rather than kept for the next flush, as the data they describe was rolled back with them.
+ */
+public class JobStatusBatcher implements Closeable {
+    public static final String S3_JOB_STATUS_STAGING_PREFIX = "nyc.job-status-staging";
+
+    private static final Logger LOGGER = LogManager.getLogger(JobStatusBatcher.class);
+
+    private static final String STAGING_TABLE = "job_status_staging";
+    private static final char STAGING_DELIMITER = '|';
+    private static final int MAX_ERROR_LENGTH = 100;
+    private static final DateTimeFormatter TRANSITION_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    public enum JobStatusTransition {
+        /** The job page was loaded into s3 */
+        DOWNLOADED("set date_last_downloaded = s.transition_date, s3_key = s.s3_key"),
+        /** The job page was scraped into redshift */
+        PARSED("set date_last_parsed = s.transition_date"),
+        /** Loading or scraping the job failed */
+        ERROR("set last_error = s.error");
+
+        private final String updateSetSql;
+
+        JobStatusTransition(String updateSetSql) {
+            this.updateSetSql = updateSetSql;
+        }
+    }
+
+    private final Connection redshiftConnection;
+    private final AmazonS3 s3;
+
+    // keyed by job number & transition so only the latest of each transition for a job is applied
+    private final Map<String, String> stagedRows;
+
+    private int maxPendingRows;
+    private long flushIntervalMillis;
+    private long lastFlushMillis;
+
+    public JobStatusBatcher(Connection redshiftConnection, AmazonS3 s3) {
+        this.redshiftConnection = redshiftConnection;
+        this.s3 = s3;
+        this.stagedRows = new LinkedHashMap<>();
+        this.lastFlushMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @param maxPendingRows recording a transition flushes once this many are pending (0, the default, never flushes
+     *                       on size)
+     */
+    public JobStatusBatcher setMaxPendingRows(int maxPendingRows) {
+        if (maxPendingRows < 0)
+            throw new IllegalArgumentException("maxPendingRows can't be negative");
+
+        this.maxPendingRows = maxPendingRows;
+        return this;
+    }
+
+    /**
+     * @param flushIntervalMillis recording a transition flushes if it's been this long since the last flush (0, the
+     *                            default, never flushes on time)
+     */
+    public JobStatusBatcher setFlushIntervalMillis(long flushIntervalMillis) {
+        if (flushIntervalMillis < 0)
+            throw new IllegalArgumentException("flushIntervalMillis can't be negative");
+
+        this.flushIntervalMillis = flushIntervalMillis;
+        return this;
+    }
+
+    public void recordDownloaded(int jobNumber, String s3Key) throws SQLException {
+        record(jobNumber, JobStatusTransition.DOWNLOADED, s3Key, null);
+    }
+
+    public void recordParsed(int jobNumber) throws SQLException {
+        record(jobNumber, JobStatusTransition.PARSED, null, null);
+    }
+
+    public void recordError(int jobNumber, String error) throws SQLException {
+        record(jobNumber, JobStatusTransition.ERROR, null, error);
+    }
+
+    public synchronized int getPendingCount() {
+        return stagedRows.size();
+    }
+
+    /**
+     * Drops all pending transitions without applying them, eg. when writing the data they describe failed
+     */
+    public synchronized void discard() {
+        stagedRows.clear();
+    }
+
+    /**
+     * Applies all pending transitions
+     */
+    public void flush() throws SQLException {
+        flush(Collections.emptyList());
+    }
+
+    /**
+     * Applies all pending transitions
+     *
+     * @param sqlInSameTransaction statements to run in the same transaction as the status updates (eg. inserting the
+     *                             data the new statuses refer to)
+     */
+    public synchronized void flush(List<String> sqlInSameTransaction) throws SQLException {
+        if (stagedRows.isEmpty() && sqlInSameTransaction.isEmpty())
+            return;
+
+        lastFlushMillis = System.currentTimeMillis();
+
+        String stagingS3Key = null;
+        boolean applied = false;
+        try {
+            if (!stagedRows.isEmpty())
+                stagingS3Key = uploadStagedRows();
+
+            try (Statement statement = redshiftConnection.createStatement()) {
+                statement.execute("begin");
+
+                for (String sql : sqlInSameTransaction) {
+                    statement.execute(sql);
+                }
+
+                if (stagingS3Key != null)
+                    applyStagedRows(statement, stagingS3Key);
+
+                // a failed statement's connection is rolled back by the pool when the statement is closed
+                statement.execute("commit");
+                applied = true;
+            }
+        } finally {
+            if (stagingS3Key != null)
+                s3.deleteObject(HbEtl.S3_BUCKET, stagingS3Key);
+
+            // applied or rolled back, either way they mustn't be applied by a later flush
+            if (applied)
+                LOGGER.debug("Applied {} job status transitions", stagedRows.size());
+            else if (!stagedRows.isEmpty())
+                LOGGER.warn("Dropped {} job status transitions after a failed flush", stagedRows.size());
+
+            stagedRows.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private synchronized void record(int jobNumber, JobStatusTransition transition, String s3Key, String error)
+            throws SQLException {
+
+        String row = String.valueOf(jobNumber) + STAGING_DELIMITER
+                + transition.name() + STAGING_DELIMITER
+                + sanitize(s3Key, Integer.MAX_VALUE) + STAGING_DELIMITER
+                + sanitize(error, MAX_ERROR_LENGTH) + STAGING_DELIMITER
+                + TRANSITION_DATE_FORMAT.format(Instant.now()) + '\n';
+
+        stagedRows.remove(jobNumber + transition.name());
+        stagedRows.put(jobNumber + transition.name(), row);
+
+        if ((maxPendingRows > 0 && stagedRows.size() >= maxPendingRows)
+                || (flushIntervalMillis > 0 && System.currentTimeMillis() - lastFlushMillis >= flushIntervalMillis))
+            flush();
+    }
+
+    private String uploadStagedRows() {
+        StringBuilder staging = new StringBuilder();
+        stagedRows.values().forEach(staging::append);
+        byte[] stagingBytes = staging.toString().getBytes(StandardCharsets.UTF_8);
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(stagingBytes.length);
+
+        String stagingS3Key = String.format("%s/%s.csv", S3_JOB_STATUS_STAGING_PREFIX, UUID.randomUUID());
+        s3.putObject(HbEtl.S3_BUCKET, stagingS3Key, new ByteArrayInputStream(stagingBytes), metadata);
+
+        return stagingS3Key;
+    }
+
+    private void applyStagedRows(Statement statement, String stagingS3Key) throws SQLException {
+        statement.execute("create temp table " + STAGING_TABLE + " (" +
+                "job_num integer not null," +
+                "transition varchar(16) not null," +
+                "s3_key varchar(100)," +
+                "error varchar(" + MAX_ERROR_LENGTH + ")," +
+                "transition_date timestamp not null" +
+            ")");
+
+        statement.execute(String.format("copy %s from 's3://%s/%s' credentials '%s' delimiter '%s' emptyasnull truncatecolumns",
+                STAGING_TABLE,
+                HbEtl.S3_BUCKET,
+                stagingS3Key,
+                HbEtl.REDSHIFT_CREDENTIALS,
+                STAGING_DELIMITER));
+
+        for (JobStatusTransition transition : JobStatusTransition.values()) {
+            statement.execute("update " + REDSHIFT_JOB_STATUS_TABLE + " " + transition.updateSetSql + " " +
+                    "from " + STAGING_TABLE + " s " +
+                    "where " + REDSHIFT_JOB_STATUS_TABLE + ".job_num = s.job_num and s.transition = '" + transition.name() + "'");
+        }
+
+        statement.execute("drop table " + STAGING_TABLE);
+    }
+
+    /**
+     * Makes the value safe to write as a staging field (no delimiters or line breaks)
+     */
+    private static String sanitize(String value, int maxLength) {
+        if (value == null)
+            return "";
+
+        String sanitized = value.replace(STAGING_DELIMITER, ' ')
+                .replace('\n', ' ')
+                .replace('\r', ' ')
+                .replace('\\', '/');
+
+        return sanitized.length() > maxLength ? sanitized.substring(0, maxLength) : sanitized;
+    }
+}
@@ -0,0 +1,199 @@
+package com.hb.hbetl.jobEtl;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.hb.hbetl.HbEtl;
+import com.hb.hbetl.statReportEtl.StatFileType;
+import com.hb.hbetl.statReportEtl.StatReportIncrementalLoader;
+import com.hb.hbetl.statReportEtl.StatReportProcessor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+import static com.hb.hbetl.jobEtl.JobEtl.REDSHIFT_JOB_STATUS_TABLE;
+import static com.hb.hbetl.statReportEtl.StatFileSchema.FILE_REF_COLUMN_NAME;
+
+/**
+ * Adds the jobs in the job stat reports which aren't in job_status yet. Returns the job numbers added
+ *
+ * Rather than anti-joining the whole job stat table against job_status on every run, only the rows of the job stat
+ * reports which are new or have changed since the last run (going by the load status etags) are read & diffed against
+ * the {@link JobNumberIndex} in memory. Just the new jobs are then copied into job_status.
+ *
+ * The first run (or any run after the index has been deleted from s3) falls back to the anti-join & builds the index
+ * from job_status.
+ */
+public class NewJobFinder implements Callable<JobNumberList> {
+    private static final Logger LOGGER = LogManager.getLogger(NewJobFinder.class);
+
+    private static final String STAGING_TABLE = "job_status_new_jobs";
+    private static final char STAGING_DELIMITER = '|';
+
+    private final Connection redshiftConnection;
+    private final AmazonS3 s3;
+
+    public NewJobFinder(Connection redshiftConnection, AmazonS3 s3) {
+        this.redshiftConnection = redshiftConnection;
+        this.s3 = s3;
+    }
+
+    @Override
+    public JobNumberList call() throws Exception {
+        Map<String, String> loadedCsvEtagsByS3Key =
+                new StatReportIncrementalLoader(redshiftConnection, s3).getLoadedEtagsByS3Key(StatFileType.JOB);
+
+        JobNumberIndex jobNumberIndex = JobNumberIndex.load(s3);
+        if (jobNumberIndex == null) {
+            LOGGER.info("No job number index, building it from " + REDSHIFT_JOB_STATUS_TABLE);
+            insertNewJobsWithAntiJoin();
+
+            jobNumberIndex = new JobNumberIndex();
+            jobNumberIndex.addAll(getJobStatusJobNumbers());
+            jobNumberIndex.setIndexedCsvEtagsByS3Key(loadedCsvEtagsByS3Key);
+            jobNumberIndex.save(s3);
+
+            LOGGER.info("Indexed " + jobNumberIndex.size() + " jobs");
+            return new JobNumberList();
+        }
+
+        Map<String, String> indexedCsvEtagsByS3Key = jobNumberIndex.getIndexedCsvEtagsByS3Key();
+        Set<String> changedFileRefs = loadedCsvEtagsByS3Key.entrySet().stream()
+                .filter(csvEtag -> !csvEtag.getValue().equals(indexedCsvEtagsByS3Key.get(csvEtag.getKey())))
+                .map(csvEtag -> StatReportProcessor.getFileRefForCsvS3Key(csvEtag.getKey()))
+                .collect(Collectors.toCollection(TreeSet::new));
+        LOGGER.info("Found " + changedFileRefs.size() + " new or changed job stat reports");
+
+        JobNumberList newJobNumbers = new JobNumberList();
+        if (!changedFileRefs.isEmpty()) {
+            Map<Integer, String> srcStatReportsByNewJobNumber = getNewJobs(jobNumberIndex, changedFileRefs);
+            if (!srcStatReportsByNewJobNumber.isEmpty())
+                insertNewJobs(srcStatReportsByNewJobNumber);
+
+            newJobNumbers = jobNumberIndex.addAll(JobNumberList.of(srcStatReportsByNewJobNumber.keySet()));
+        }
+
+        jobNumberIndex.setIndexedCsvEtagsByS3Key(loadedCsvEtagsByS3Key);
+        jobNumberIndex.save(s3);
+
+        return newJobNumbers;
+    }
+
+    /**
+     * @return the jobs in the given reports which aren't in the index, with the first report each was found in
+     */
+    private Map<Integer, String> getNewJobs(JobNumberIndex jobNumberIndex, Set<String> fileRefs) throws SQLException {
+        try (Statement statement = redshiftConnection.createStatement()) {
+            String sql = String.format("select distinct job_num, %s from %s where %s in (%s)",
+                    FILE_REF_COLUMN_NAME,
+                    StatFileType.JOB.sqlTableName,
+                    FILE_REF_COLUMN_NAME,
+                    fileRefs.stream().map(fileRef -> "'" + fileRef + "'").collect(Collectors.joining(", ")));
+
+            ResultSet result = statement.executeQuery(sql);
+            Map<Integer, String> srcStatReportsByNewJobNumber = new TreeMap<>();
+            while (result.next()) {
+                String jobNum = result.getString("job_num");
+
+                int jobNumber;
+                try {
+                    jobNumber = Integer.parseInt((jobNum == null) ? "" : jobNum.trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.debug("Skipping invalid job number: " + jobNum);
+                    continue;
+                }
+
+                if (!jobNumberIndex.contains(jobNumber))
+                    srcStatReportsByNewJobNumber.putIfAbsent(jobNumber, result.getString(FILE_REF_COLUMN_NAME));
+            }
+
+            return srcStatReportsByNewJobNumber;
+        }
+    }
+
+    /**
+     * Copies the new jobs into job_status through a staging table. Jobs already in job_status are skipped, in case a
+     * previous run added them but didn't get to save the index
+     */
+    private void insertNewJobs(Map<Integer, String> srcStatReportsByNewJobNumber) throws SQLException {
+        StringBuilder staging = new StringBuilder();
+        srcStatReportsByNewJobNumber.forEach((jobNumber, srcStatReport) ->
+                staging.append(jobNumber).append(STAGING_DELIMITER).append(srcStatReport).append('\n'));
+        byte[] stagingBytes = staging.toString().getBytes(StandardCharsets.UTF_8);
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(stagingBytes.length);
+
+        String stagingS3Key = String.format("%s/%s.csv", JobStatusBatcher.S3_JOB_STATUS_STAGING_PREFIX, UUID.randomUUID());
+        s3.putObject(HbEtl.S3_BUCKET, stagingS3Key, new ByteArrayInputStream(stagingBytes), metadata);
+
+        try (Statement statement = redshiftConnection.createStatement()) {
+            statement.execute("begin");
+
+            statement.execute("create temp table " + STAGING_TABLE + " (" +
+                    "job_num integer not null," +
+                    "src_stat_report varchar(50) not null" +
+                ")");
+
+            statement.execute(String.format("copy %s from 's3://%s/%s' credentials '%s' delimiter '%s'",
+                    STAGING_TABLE,
+                    HbEtl.S3_BUCKET,
+                    stagingS3Key,
+                    HbEtl.REDSHIFT_CREDENTIALS,
+                    STAGING_DELIMITER));
+
+            statement.execute("insert into " + REDSHIFT_JOB_STATUS_TABLE + " (job_num, src_stat_report) (" +
+                    "select s.job_num, s.src_stat_report from " + STAGING_TABLE + " s " +
+                    "where not exists (" +
+                        "select 1 from " + REDSHIFT_JOB_STATUS_TABLE + " j where j.job_num = s.job_num" +
+                    ")" +
+                ")");
+
+            statement.execute("drop table " + STAGING_TABLE);
+            statement.execute("commit");
+        } finally {
+            s3.deleteObject(HbEtl.S3_BUCKET, stagingS3Key);
+        }
+
+        LOGGER.info("Added " + srcStatReportsByNewJobNumber.size() + " new jobs to " + REDSHIFT_JOB_STATUS_TABLE);
+    }
+
+    private void insertNewJobsWithAntiJoin() throws SQLException {
+        try (Statement statement = redshiftConnection.createStatement()) {
+            String sql = "insert into " + REDSHIFT_JOB_STATUS_TABLE + " (" +
+                    "select distinct to_number(job_num, 9999999999)::integer as job_num, " + FILE_REF_COLUMN_NAME + " as src_stat_report " +
+                    "from " + StatFileType.JOB.sqlTableName + " srj " +
+                    "where not exists (" +
+                        "select 1 from " + REDSHIFT_JOB_STATUS_TABLE + " j where j.job_num = srj.job_num" +
+                    ")" +
+                ")";
+
+            statement.execute(sql);
+        }
+    }
+
+    private JobNumberList getJobStatusJobNumbers() throws SQLException {
+        try (Statement statement = redshiftConnection.createStatement()) {
+            ResultSet result = statement.executeQuery("select job_num from " + REDSHIFT_JOB_STATUS_TABLE);
+
+            JobNumberList jobNumbers = new JobNumberList();
+            while (result.next()) {
+                jobNumbers.add(result.getInt("job_num"));
+            }
+
+            return jobNumbers;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.hb.hbetl.jobEtl.lambdas;
+
+import java.util.List;
+
+/**
+ * Request to run a job lambda over a batch of job numbers
+ */
+public class JobBatchRequest {
+    public List<Integer> jobNumbers;
+
+    /** The rate this invocation may fetch pages at, pages are fetched back to back if it's not positive */
+    public double pagesPerSecond;
+
+    public JobBatchRequest() {}
+
+    public JobBatchRequest(List<Integer> jobNumbers, double pagesPerSecond) {
+        this.jobNumbers = jobNumbers;
+        this.pagesPerSecond = pagesPerSecond;
+    }
+}
@@ -0,0 +1,45 @@
+package com.hb.hbetl.jobEtl.lambdas;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of running a job lambda over a batch of job numbers
+ */
+public class JobBatchResult {
+    public List<Integer> completedJobNumbers;
+    public Map<Integer, String> failuresByJobNumber;
+
+    /** Jobs which weren't attempted or completed because the source throttled the batch, they should be retried */
+    public List<Integer> throttledJobNumbers;
+
+    /** Jobs which weren't attempted because pacing them would have run past the invocation's time limit, they should be resent */
+    public List<Integer> deferredJobNumbers;
+
+    public JobBatchResult() {}
+
+    public JobBatchResult(List<Integer> completedJobNumbers, Map<Integer, String> failuresByJobNumber) {
+        this(completedJobNumbers, failuresByJobNumber, Collections.emptyList());
+    }
+
+    public JobBatchResult(List<Integer> completedJobNumbers, Map<Integer, String> failuresByJobNumber, List<Integer> throttledJobNumbers) {
+        this(completedJobNumbers, failuresByJobNumber, throttledJobNumbers, Collections.emptyList());
+    }
+
+    public JobBatchResult(List<Integer> completedJobNumbers, Map<Integer, String> failuresByJobNumber,
+                          List<Integer> throttledJobNumbers, List<Integer> deferredJobNumbers) {
+        this.completedJobNumbers = completedJobNumbers;
+        this.failuresByJobNumber = failuresByJobNumber;
+        this.throttledJobNumbers = throttledJobNumbers;
+        this.deferredJobNumbers = deferredJobNumbers;
+    }
+
+    public List<Integer> getThrottledJobNumbers() {
+        return (throttledJobNumbers == null) ? Collections.emptyList() : throttledJobNumbers;
+    }
+
+    public List<Integer> getDeferredJobNumbers() {
+        return (deferredJobNumbers == null) ? Collections.emptyList() : deferredJobNumbers;
+    }
+}
@@ -0,0 +1,15 @@
+package com.hb.hbetl.jobEtl.lambdas;
+
+/**
+ * Failure reported for a single job in a {@link JobBatchResult}
+ */
+public class JobFailureException extends RuntimeException {
+    private static final long serialVersionUID = 4185063017428310955L;
+
+    public final Integer jobNumber;
+
+    public JobFailureException(Integer jobNumber, String message) {
+        super(message);
+        this.jobNumber = jobNumber;
+    }
+}
@@ -0,0 +1,17 @@
+package com.hb.hbetl.jobEtl.lambdas;
+
+import java.io.IOException;
+
+/**
+ * Thrown when bis responds to a job page request with its throttle page (or a 429/503) instead of the job page
+ */
+public class JobPageThrottledException extends IOException {
+    private static final long serialVersionUID = -6083416127358442197L;
+
+    public final Integer jobNumber;
+
+    public JobPageThrottledException(Integer jobNumber, String message) {
+        super(message);
+        this.jobNumber = jobNumber;
+    }
+}
@@ -8,4 +8,11 @@ import com.amazonaws.services.lambda.invoke.LambdaFunction;
 public interface LoadJobPageLambda {
     @LambdaFunction(functionName = "nyc_dob_load_job_page")
     Integer loadJobPage(Integer jobNumber);
+
+    /**
+     * Loads the html pages for each of the request's job numbers (at no more than its rate), updating their job statuses
+     * in a single statement
+     */
+    @LambdaFunction(functionName = "nyc_dob_load_job_pages")
+    JobBatchResult loadJobPages(JobBatchRequest request);
 }
@@ -1,30 +1,79 @@
 package com.hb.hbetl.jobEtl.lambdas;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.hb.hbetl.HbEtl;
 import com.hb.hbetl.jobEtl.JobEtl;
-import org.apache.commons.io.FileUtils;
+import com.hb.hbetl.jobEtl.JobPageStore;
+import com.hb.hbetl.jobEtl.JobStatusBatcher;
+import com.hb.hbetl.jobEtl.validators.IsNotThrottlePageValidator;
+import com.hb.hbetl.redshift.RedshiftConnectionPool;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static com.hb.hbetl.jobEtl.JobEtl.REDSHIFT_JOB_STATUS_TABLE;
 
 /**
  * Implementation of {@link LoadJobPageLambda}
+ *
+ * Pages are stored gzipped (see {@link JobPageStore}). If {@link #ARCHIVE_BATCHES_ENV_VARIABLE} is set each batch of
+ * pages is also packed into an archive, for reprocessing with {@link ScrapeJobPagesLambda#scrapeJobPageArchive(String)}
+ *
+ * Throttle responses from bis are detected before anything is stored, the rest of the batch is returned as throttled
+ * (see {@link JobBatchResult#throttledJobNumbers}) for the caller to retry at a lower rate.
+ *
+ * Pages are fetched at the rate given in the request (see {@link JobBatchRequest#pagesPerSecond}), so a whole batch can
+ * be sent in one invocation without bursting past what bis tolerates. Jobs whose turn would come too late for the
+ * invocation are returned unattempted (see {@link JobBatchResult#deferredJobNumbers}).
  */
 public class LoadJobPageLambdaImpl implements LoadJobPageLambda {
+    public static final String ARCHIVE_BATCHES_ENV_VARIABLE = "CFG_JOB_PAGE_ARCHIVE_BATCHES";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 30 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 60 * 1000;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    // fetches which would have to wait longer than this are left for another invocation, well within the function timeout
+    private static final long MAX_PACED_MILLIS = 5 * 60 * 1000;
+
+    private static final Logger LOGGER = LogManager.getLogger(LoadJobPageLambdaImpl.class);
+
     private final Connection redshiftConnection;
-    private final AmazonS3 s3;
+    private final JobPageStore jobPageStore;
+    private final boolean archiveBatches;
+    private final JobStatusBatcher jobStatusBatcher;
 
-    public LoadJobPageLambdaImpl() throws SQLException, ClassNotFoundException {
-        redshiftConnection = HbEtl.getRedshiftConnection();
-        s3 = AmazonS3ClientBuilder.defaultClient();
+    /**
+     * Used by the lambda runtime. Redshift isn't connected to until the first statement, & is reconnected to if the
+     * connection goes stale while the container is frozen
+     */
+    public LoadJobPageLambdaImpl() {
+        this(new RedshiftConnectionPool(HbEtl::getRedshiftConnection, 1).getConnection(), AmazonS3ClientBuilder.defaultClient());
+    }
+
+    public LoadJobPageLambdaImpl(Connection redshiftConnection, AmazonS3 s3) {
+        this.redshiftConnection = redshiftConnection;
+        this.jobPageStore = new JobPageStore(s3);
+        this.archiveBatches = Boolean.parseBoolean(System.getenv(ARCHIVE_BATCHES_ENV_VARIABLE));
+        this.jobStatusBatcher = new JobStatusBatcher(redshiftConnection, s3);
     }
 
     @Override
@@ -32,7 +81,7 @@ public class LoadJobPageLambdaImpl implements LoadJobPageLambda {
         try {
             String s3Key = JobEtl.getS3KeyForForJobNum(jobNumber);
 
-            loadJobPageToS3(jobNumber, s3Key);
+            loadJobPageToS3(jobNumber);
             updateJobStatusInRedshift(jobNumber, s3Key);
         } catch (SQLException | IOException e) {
             throw new RuntimeException(e);
@@ -41,6 +90,85 @@ public class LoadJobPageLambdaImpl implements LoadJobPageLambda {
         return jobNumber;
     }
 
+    @Override
+    public JobBatchResult loadJobPages(JobBatchRequest request) {
+        List<Integer> jobNumbers = request.jobNumbers;
+        List<Integer> loadedJobNumbers = new ArrayList<>(jobNumbers.size());
+        Map<Integer, String> failuresByJobNumber = new HashMap<>();
+        Map<Integer, byte[]> gzippedPagesByJobNumber = new LinkedHashMap<>();
+        List<Integer> throttledJobNumbers = new ArrayList<>();
+        List<Integer> deferredJobNumbers = new ArrayList<>();
+
+        long fetchIntervalNanos = (request.pagesPerSecond > 0) ? (long) (1e9 / request.pagesPerSecond) : 0;
+        long startNanos = System.nanoTime();
+
+        try {
+            for (int i = 0; i < jobNumbers.size(); i++) {
+                Integer jobNumber = jobNumbers.get(i);
+
+                // the i'th fetch is held back until i intervals have passed, so bursts stay within the requested rate
+                long fetchNanos = startNanos + i * fetchIntervalNanos;
+                if (fetchNanos - startNanos > MAX_PACED_MILLIS * 1000000L) {
+                    deferredJobNumbers.addAll(jobNumbers.subList(i, jobNumbers.size()));
+                    break;
+                }
+
+                try {
+                    sleepUntil(fetchNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    deferredJobNumbers.addAll(jobNumbers.subList(i, jobNumbers.size()));
+                    break;
+                }
+
+                try {
+                    String s3Key = JobEtl.getS3KeyForForJobNum(jobNumber);
+
+                    byte[] gzippedPage = loadJobPageToS3(jobNumber);
+                    if (archiveBatches)
+                        gzippedPagesByJobNumber.put(jobNumber, gzippedPage);
+
+                    jobStatusBatcher.recordDownloaded(jobNumber, s3Key);
+                    loadedJobNumbers.add(jobNumber);
+                } catch (JobPageThrottledException e) {
+                    // carrying on would just fetch more throttle pages, the rest of the batch is left for a retry
+                    throttledJobNumbers.addAll(jobNumbers.subList(i, jobNumbers.size()));
+                    break;
+                } catch (AmazonClientException | IOException e) {
+                    failuresByJobNumber.put(jobNumber, e.getLocalizedMessage());
+                }
+            }
+
+            if (!gzippedPagesByJobNumber.isEmpty())
+                putArchive(gzippedPagesByJobNumber);
+
+            // the container may be frozen after returning, so nothing can be left pending
+            jobStatusBatcher.flush();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        return new JobBatchResult(loadedJobNumbers, failuresByJobNumber, throttledJobNumbers, deferredJobNumbers);
+    }
+
+    private static void sleepUntil(long nanos) throws InterruptedException {
+        long waitNanos = nanos - System.nanoTime();
+        if (waitNanos > 0)
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+    }
+
+    /**
+     * The pages are already stored individually & the archive is only for reprocessing, so failing to store it doesn't
+     * fail the batch
+     */
+    private void putArchive(Map<Integer, byte[]> gzippedPagesByJobNumber) {
+        try {
+            jobPageStore.putArchive(gzippedPagesByJobNumber);
+        } catch (AmazonClientException | IOException e) {
+            LOGGER.warn("Failed to archive batch of " + gzippedPagesByJobNumber.size() + " job pages", e);
+        }
+    }
+
     private void updateJobStatusInRedshift(Integer jobNumber, String s3Key) throws SQLException {
         try (Statement statement = redshiftConnection.createStatement()) {
             String sql = "update " + REDSHIFT_JOB_STATUS_TABLE + " " +
@@ -51,16 +179,44 @@ public class LoadJobPageLambdaImpl implements LoadJobPageLambda {
         }
     }
 
-    private void loadJobPageToS3(Integer jobNumber, String s3Key) throws IOException {
+    /**
+     * @return the gzipped page as stored in s3
+     * @throws JobPageThrottledException if bis sent its throttle page instead of the job page, nothing is stored
+     */
+    private byte[] loadJobPageToS3(Integer jobNumber) throws IOException {
+        byte[] jobPage = fetchJobPage(jobNumber);
+
+        // compress the page & put it into s3
+        return jobPageStore.putJobPage(jobNumber, new ByteArrayInputStream(jobPage));
+    }
+
+    private byte[] fetchJobPage(Integer jobNumber) throws IOException {
         URL jobPageUrl = JobEtl.getUrlForJobNum(jobNumber);
 
-        // create temp file in local file system
-        File jobPage = File.createTempFile(JobEtl.JOB_PAGE_TEMP_FILE_PREFIX, JobEtl.JOB_PAGE_TEMP_FILE_DELIMITER + JobEtl.getFilenameForJobNum(jobNumber));
+        URLConnection connection = jobPageUrl.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
 
-        // load the file into temp file
-        FileUtils.copyURLToFile(jobPageUrl, jobPage);
+        try {
+            if (connection instanceof HttpURLConnection) {
+                int responseCode = ((HttpURLConnection) connection).getResponseCode();
+                if (responseCode == HTTP_TOO_MANY_REQUESTS || responseCode == HttpURLConnection.HTTP_UNAVAILABLE)
+                    throw new JobPageThrottledException(jobNumber, "Throttled with http " + responseCode);
+            }
+
+            byte[] jobPage;
+            try (InputStream jobPageInput = connection.getInputStream()) {
+                jobPage = IOUtils.toByteArray(jobPageInput);
+            }
 
-        // upload a copy of the file to s3
-        s3.putObject(HbEtl.S3_BUCKET, s3Key, jobPage);
+            // the page is only checked for the (ascii) throttle message, so the charset doesn't matter
+            if (IsNotThrottlePageValidator.isThrottlePage(new String(jobPage, StandardCharsets.ISO_8859_1)))
+                throw new JobPageThrottledException(jobNumber, "Throttle page");
+
+            return jobPage;
+        } finally {
+            if (connection instanceof HttpURLConnection)
+                ((HttpURLConnection) connection).disconnect();
+        }
     }
 }
@@ -2,10 +2,25 @@ package com.hb.hbetl.jobEtl.lambdas;
 
 import com.amazonaws.services.lambda.invoke.LambdaFunction;
 
+import java.util.List;
+
 /**
  * AWS lambda function for scraping job data from job page
  */
 public interface ScrapeJobPagesLambda {
     @LambdaFunction(functionName = "nyc_dob_scrape_job_page")
     Integer scrapeJobPage(Integer jobNum);
+
+    /**
+     * Scrapes each of the given job pages, inserting the data for every successfully parsed job in one transaction
+     */
+    @LambdaFunction(functionName = "nyc_dob_scrape_job_pages")
+    JobBatchResult scrapeJobPages(List<Integer> jobNums);
+
+    /**
+     * Scrapes every job page packed into the given archive (see {@link com.hb.hbetl.jobEtl.JobPageStore}), inserting
+     * the data for every successfully parsed job in one transaction
+     */
+    @LambdaFunction(functionName = "nyc_dob_scrape_job_page_archive")
+    JobBatchResult scrapeJobPageArchive(String archiveS3Key);
 }
@@ -3,21 +3,33 @@ package com.hb.hbetl.jobEtl.lambdas;
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.hb.hbetl.HbEtl;
 import com.hb.hbetl.jobEtl.JobEtl;
 import com.hb.hbetl.jobEtl.JobPageParser;
+import com.hb.hbetl.jobEtl.JobPageStore;
+import com.hb.hbetl.jobEtl.JobStatusBatcher;
 import com.hb.hbetl.jobEtl.parsers.JobFieldParsingException;
 import com.hb.hbetl.jobEtl.validators.JobPageValidationException;
-import org.apache.commons.io.FileUtils;
+import com.hb.hbetl.redshift.RedshiftConnectionPool;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import static com.hb.hbetl.jobEtl.JobEtl.*;
 
@@ -27,10 +39,22 @@ import static com.hb.hbetl.jobEtl.JobEtl.*;
 public class ScrapeJobPagesLambdaImpl implements ScrapeJobPagesLambda {
     private final Connection redshiftConnection;
     private final AmazonS3 s3;
+    private final JobPageStore jobPageStore;
+    private final JobStatusBatcher jobStatusBatcher;
 
-    public ScrapeJobPagesLambdaImpl() throws SQLException, ClassNotFoundException {
-        redshiftConnection = HbEtl.getRedshiftConnection();
-        s3 = AmazonS3ClientBuilder.defaultClient();
+    /**
+     * Used by the lambda runtime. Redshift isn't connected to until the first statement, & is reconnected to if the
+     * connection goes stale while the container is frozen
+     */
+    public ScrapeJobPagesLambdaImpl() {
+        this(new RedshiftConnectionPool(HbEtl::getRedshiftConnection, 1).getConnection(), AmazonS3ClientBuilder.defaultClient());
+    }
+
+    public ScrapeJobPagesLambdaImpl(Connection redshiftConnection, AmazonS3 s3) {
+        this.redshiftConnection = redshiftConnection;
+        this.s3 = s3;
+        this.jobPageStore = new JobPageStore(s3);
+        this.jobStatusBatcher = new JobStatusBatcher(redshiftConnection, s3);
     }
 
     @Override
@@ -55,22 +79,111 @@ public class ScrapeJobPagesLambdaImpl implements ScrapeJobPagesLambda {
         }
     }
 
-    private JobPageParser generateJobPageParser(Integer jobNumber) {
+    @Override
+    public JobBatchResult scrapeJobPages(List<Integer> jobNumbers) {
+        List<JobPageParser> parsers = new ArrayList<>(jobNumbers.size());
+        Map<Integer, String> failuresByJobNumber = new HashMap<>();
+
+        for (Integer jobNumber : jobNumbers) {
+            try {
+                JobPageParser parser = generateJobPageParser(jobNumber);
+                if (parser != null)
+                    parsers.add(parser);
+            } catch (RuntimeException e) {
+                failuresByJobNumber.put(jobNumber, e.getLocalizedMessage());
+            }
+        }
+
+        return writeParsedJobs(parsers, failuresByJobNumber);
+    }
+
+    @Override
+    public JobBatchResult scrapeJobPageArchive(String archiveS3Key) {
+        List<JobPageParser> parsers = new ArrayList<>();
+        Map<Integer, String> failuresByJobNumber = new HashMap<>();
+
         try {
-            String s3Key = JobEtl.getS3KeyForForJobNum(jobNumber);
-            S3Object s3Object = s3.getObject(HbEtl.S3_BUCKET, s3Key);
+            jobPageStore.readArchive(archiveS3Key, (jobNumber, jobPageInput) -> {
+                try {
+                    parsers.add(new JobPageParser(jobNumber, parseJobPage(jobNumber, jobPageInput)));
+                } catch (RuntimeException | IOException e) {
+                    failuresByJobNumber.put(jobNumber, e.getLocalizedMessage());
+                }
+            });
+        } catch (AmazonClientException | IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return writeParsedJobs(parsers, failuresByJobNumber);
+    }
+
+    /**
+     * Inserts the parsed jobs & marks them as parsed in one transaction
+     */
+    private JobBatchResult writeParsedJobs(List<JobPageParser> parsers, Map<Integer, String> failuresByJobNumber) {
+        if (!parsers.isEmpty()) {
+            String stagingS3Key = null;
+            try {
+                // copy data is uploaded before any statuses are staged, so nothing can be left staged if it fails
+                String writeSql;
+                if (parsers.size() < JobPageParser.MIN_COPY_BATCH_SIZE) {
+                    writeSql = JobPageParser.generateInsertSql(parsers);
+                } else {
+                    stagingS3Key = uploadParsedJobs(parsers);
+                    writeSql = JobPageParser.generateCopySql(stagingS3Key);
+                }
+
+                // the batcher has no flush thresholds set, so the statuses are only applied with the parsed data
+                for (JobPageParser parser : parsers) {
+                    jobStatusBatcher.recordParsed(parser.jobNumber);
+                }
+                jobStatusBatcher.flush(Collections.singletonList(writeSql));
+            } catch (SQLException | IOException e) {
+                jobStatusBatcher.discard();
+                throw new RuntimeException(e);
+            } finally {
+                if (stagingS3Key != null)
+                    s3.deleteObject(HbEtl.S3_BUCKET, stagingS3Key);
+            }
+        }
 
-            File jobPage = File.createTempFile(JOB_PAGE_TEMP_FILE_PREFIX, JOB_PAGE_TEMP_FILE_DELIMITER + JobEtl.getFilenameForJobNum(jobNumber));
-            FileUtils.copyInputStreamToFile(s3Object.getObjectContent(), jobPage);
+        List<Integer> scrapedJobNumbers = parsers.stream()
+                .map(parser -> parser.jobNumber)
+                .collect(Collectors.toList());
+
+        return new JobBatchResult(scrapedJobNumbers, failuresByJobNumber);
+    }
+
+    private String uploadParsedJobs(List<JobPageParser> parsers) throws IOException {
+        ByteArrayOutputStream copyData = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutput = new GZIPOutputStream(copyData)) {
+            JobPageParser.writeCopyData(parsers, gzipOutput);
+        }
 
-            Document document = Jsoup.parse(jobPage, null);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(copyData.size());
 
-            return new JobPageParser(jobNumber, document);
+        String stagingS3Key = String.format("%s/%s.gz", S3_JOB_PARSED_STAGING_PREFIX, UUID.randomUUID());
+        s3.putObject(HbEtl.S3_BUCKET, stagingS3Key, new ByteArrayInputStream(copyData.toByteArray()), metadata);
+
+        return stagingS3Key;
+    }
+
+    private JobPageParser generateJobPageParser(Integer jobNumber) {
+        try {
+            // jsoup builds the whole document in memory anyway, so the page is parsed straight from the s3 stream
+            try (InputStream jobPageInput = jobPageStore.openJobPage(jobNumber)) {
+                return new JobPageParser(jobNumber, parseJobPage(jobNumber, jobPageInput));
+            }
         } catch (AmazonClientException | IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static Document parseJobPage(Integer jobNumber, InputStream jobPageInput) throws IOException {
+        return Jsoup.parse(jobPageInput, null, JobEtl.getUrlForJobNum(jobNumber).toString());
+    }
+
     private String generateUpdateSql(JobPageParser parser) {
         return String.format("update %s set date_last_parsed = getdate() where job_num = %d",
                 REDSHIFT_JOB_STATUS_TABLE,
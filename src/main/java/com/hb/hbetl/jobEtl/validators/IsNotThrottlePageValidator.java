@@ -9,8 +9,18 @@ import java.util.regex.Pattern;
 public class IsNotThrottlePageValidator extends RuntimeException implements JobPageValidator {
     private static final long serialVersionUID = -22314248052553614L;
 
+    // the start of the throttle message, matched against the raw html so the page can be rejected before it's parsed
+    private static final Pattern THROTTLE_PAGE_HTML_MATCHER = Pattern.compile("Due\\s+to\\s+the\\s+high\\s+demand\\s+it\\s+may\\s+take\\s+a\\s+little\\s+longer");
+
     private Pattern THROTTLE_PAGE_VALIDATOR = Pattern.compile(".*Due to the high demand it may take a little longer\\. You will be directed to the page shortly\\. Please do not leave this page\\. Refreshing the page will delay the response time\\. We apologize for the delay.*");
 
+    /**
+     * @return true if the raw html is the bis "Due to the high demand..." page rather than a job page
+     */
+    public static boolean isThrottlePage(CharSequence jobPageHtml) {
+        return THROTTLE_PAGE_HTML_MATCHER.matcher(jobPageHtml).find();
+    }
+
     @Override
     public void validate(Document jobDocument) throws JobPageValidationException {
         Elements paragraphElements = jobDocument.select("p");
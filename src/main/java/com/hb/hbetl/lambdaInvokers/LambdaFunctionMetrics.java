@@ -0,0 +1,96 @@
+package com.hb.hbetl.lambdaInvokers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Invocation counts & a latency histogram for a single lambda function. Safe to update from multiple threads.
+ *
+ * Latencies are bucketed by powers of 2 (bucket i holds latencies under 2^i ms), so percentiles are reported as the
+ * upper bound of the bucket they fall in.
+ */
+public class LambdaFunctionMetrics {
+    private static final int LATENCY_BUCKET_COUNT = 24; // last bucket holds anything over ~70 minutes
+
+    private final String functionName;
+    private final AtomicLong invocationCount;
+    private final AtomicLong failureCount;
+    private final AtomicLong totalLatencyMillis;
+    private final AtomicLongArray latencyBuckets;
+
+    public LambdaFunctionMetrics(String functionName) {
+        this.functionName = functionName;
+        this.invocationCount = new AtomicLong();
+        this.failureCount = new AtomicLong();
+        this.totalLatencyMillis = new AtomicLong();
+        this.latencyBuckets = new AtomicLongArray(LATENCY_BUCKET_COUNT);
+    }
+
+    public void recordInvocation(long latencyMillis, boolean failed) {
+        invocationCount.incrementAndGet();
+        if (failed)
+            failureCount.incrementAndGet();
+
+        totalLatencyMillis.addAndGet(latencyMillis);
+        latencyBuckets.incrementAndGet(getLatencyBucket(latencyMillis));
+    }
+
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    public long getInvocationCount() {
+        return invocationCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    public double getMeanLatencyMillis() {
+        long count = invocationCount.get();
+
+        return count == 0 ? 0 : (double) totalLatencyMillis.get() / count;
+    }
+
+    /**
+     * @param percentile between 0 & 1
+     * @return upper bound (in ms) of the histogram bucket containing the given latency percentile
+     */
+    public long getLatencyPercentileMillis(double percentile) {
+        long[] counts = new long[LATENCY_BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < LATENCY_BUCKET_COUNT; i++) {
+            counts[i] = latencyBuckets.get(i);
+            total += counts[i];
+        }
+
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0)
+                return 1L << i;
+        }
+
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d invocations, %d failures, mean %.0fms, p50 <%dms, p90 <%dms, p99 <%dms",
+                functionName,
+                getInvocationCount(),
+                getFailureCount(),
+                getMeanLatencyMillis(),
+                getLatencyPercentileMillis(.5),
+                getLatencyPercentileMillis(.9),
+                getLatencyPercentileMillis(.99));
+    }
+
+    private static int getLatencyBucket(long latencyMillis) {
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(latencyMillis, 0));
+
+        return Math.min(bucket, LATENCY_BUCKET_COUNT - 1);
+    }
+}
@@ -0,0 +1,41 @@
+package com.hb.hbetl.lambdaInvokers;
+
+import java.io.Closeable;
+
+/**
+ * Provides implementations of the lambda function interfaces (eg. {@link com.hb.hbetl.jobEtl.lambdas.LoadJobPageLambda})
+ * used by each etl stage, so the stages don't depend on how (or where) the functions are actually run.
+ *
+ * @see RemoteLambdaInvoker
+ * @see LocalLambdaInvoker
+ */
+public interface LambdaInvoker extends Closeable {
+    /**
+     * Config variable used by {@link #getModeFromEnv} to pick the invoker ("remote" or "local")
+     */
+    String INVOKER_MODE_ENV_VARIABLE = "CFG_LAMBDA_INVOKER_MODE";
+
+    /**
+     * @param lambdaInterface interface annotated with {@link com.amazonaws.services.lambda.invoke.LambdaFunction}
+     * @return an implementation of the interface which is safe to call from multiple threads
+     */
+    <T> T getFunction(Class<T> lambdaInterface);
+
+    @Override
+    default void close() {}
+
+    enum Mode {
+        /** Invokes the deployed aws lambda functions */
+        REMOTE,
+        /** Calls the lambda implementations directly in this jvm */
+        LOCAL
+    }
+
+    static Mode getModeFromEnv() {
+        String mode = System.getenv(INVOKER_MODE_ENV_VARIABLE);
+        if (mode == null || mode.isEmpty())
+            return Mode.REMOTE;
+
+        return Mode.valueOf(mode.toUpperCase());
+    }
+}
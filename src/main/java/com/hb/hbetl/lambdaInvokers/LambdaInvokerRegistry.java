@@ -0,0 +1,96 @@
+package com.hb.hbetl.lambdaInvokers;
+
+import com.amazonaws.services.lambda.invoke.LambdaFunction;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared {@link LambdaInvoker} which builds each function proxy once & hands the same instance to every caller, rather
+ * than going through reflection & proxy construction for every invocation. Also keeps {@link LambdaFunctionMetrics}
+ * for each function.
+ *
+ * Safe to use from multiple threads (eg. parallel streams).
+ */
+public class LambdaInvokerRegistry implements LambdaInvoker {
+    private final LambdaInvoker lambdaInvoker;
+    private final Map<Class<?>, Object> functionsByInterface;
+    private final Map<String, LambdaFunctionMetrics> metricsByFunctionName;
+
+    public LambdaInvokerRegistry(LambdaInvoker lambdaInvoker) {
+        this.lambdaInvoker = lambdaInvoker;
+        this.functionsByInterface = new ConcurrentHashMap<>();
+        this.metricsByFunctionName = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public <T> T getFunction(Class<T> lambdaInterface) {
+        return lambdaInterface.cast(functionsByInterface.computeIfAbsent(lambdaInterface, this::createMeteredFunction));
+    }
+
+    /**
+     * @return metrics for every function which has been requested from this registry
+     */
+    public List<LambdaFunctionMetrics> getMetrics() {
+        return new ArrayList<>(metricsByFunctionName.values());
+    }
+
+    private LambdaFunctionMetrics getOrCreateMetrics(String functionName) {
+        return metricsByFunctionName.computeIfAbsent(functionName, LambdaFunctionMetrics::new);
+    }
+
+    @Override
+    public void close() {
+        lambdaInvoker.close();
+    }
+
+    private Object createMeteredFunction(Class<?> lambdaInterface) {
+        Object function = lambdaInvoker.getFunction(lambdaInterface);
+
+        Map<Method, LambdaFunctionMetrics> metricsByMethod = new ConcurrentHashMap<>();
+        for (Method method : lambdaInterface.getMethods()) {
+            metricsByMethod.put(method, getOrCreateMetrics(getFunctionName(method)));
+        }
+
+        return Proxy.newProxyInstance(
+                lambdaInterface.getClassLoader(),
+                new Class<?>[] { lambdaInterface },
+                (proxy, method, args) -> {
+                    LambdaFunctionMetrics metrics = metricsByMethod.get(method);
+                    if (metrics == null)
+                        return invoke(function, method, args);
+
+                    long start = System.currentTimeMillis();
+                    boolean failed = true;
+                    try {
+                        Object result = invoke(function, method, args);
+                        failed = false;
+
+                        return result;
+                    } finally {
+                        metrics.recordInvocation(System.currentTimeMillis() - start, failed);
+                    }
+                });
+    }
+
+    private static Object invoke(Object function, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(function, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String getFunctionName(Method method) {
+        LambdaFunction annotation = method.getAnnotation(LambdaFunction.class);
+        if (annotation != null && !annotation.functionName().isEmpty())
+            return annotation.functionName();
+
+        return method.getName();
+    }
+}
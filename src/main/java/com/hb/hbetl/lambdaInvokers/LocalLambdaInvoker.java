@@ -0,0 +1,103 @@
+package com.hb.hbetl.lambdaInvokers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the lambda implementations (eg. {@link com.hb.hbetl.jobEtl.lambdas.LoadJobPageLambdaImpl}) in this jvm, on a
+ * fixed size thread pool. Used to run the whole etl in one process for backfills & benchmarks.
+ *
+ * Like a lambda container, each pool thread creates its own instance of an implementation (with its own redshift
+ * connection etc.) the first time it's needed & reuses it for every later call, so implementations never have to be
+ * thread safe.
+ */
+public class LocalLambdaInvoker implements LambdaInvoker {
+    public static final String THREAD_COUNT_ENV_VARIABLE = "CFG_LOCAL_LAMBDA_THREADS";
+    public static final int DEFAULT_THREAD_COUNT = 8;
+
+    private static final Logger LOGGER = LogManager.getLogger(LocalLambdaInvoker.class);
+
+    /**
+     * Creates a new instance of a lambda implementation
+     */
+    public interface LambdaFactory<T> {
+        T create() throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final Map<Class<?>, ThreadLocal<Object>> implementationsByInterface;
+
+    public LocalLambdaInvoker(int threadCount) {
+        this.executor = Executors.newFixedThreadPool(threadCount);
+        this.implementationsByInterface = new ConcurrentHashMap<>();
+    }
+
+    public static int getThreadCountFromEnv() {
+        String threadCount = System.getenv(THREAD_COUNT_ENV_VARIABLE);
+        if (threadCount == null || threadCount.isEmpty())
+            return DEFAULT_THREAD_COUNT;
+
+        return Integer.parseInt(threadCount);
+    }
+
+    public <T> LocalLambdaInvoker register(Class<T> lambdaInterface, LambdaFactory<? extends T> lambdaFactory) {
+        implementationsByInterface.put(lambdaInterface, ThreadLocal.withInitial(() -> {
+            try {
+                LOGGER.debug("Creating local {} on {}", lambdaInterface.getSimpleName(), Thread.currentThread().getName());
+                return lambdaFactory.create();
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to create local " + lambdaInterface.getSimpleName(), e);
+            }
+        }));
+
+        return this;
+    }
+
+    @Override
+    public <T> T getFunction(Class<T> lambdaInterface) {
+        ThreadLocal<Object> implementation = implementationsByInterface.get(lambdaInterface);
+        if (implementation == null)
+            throw new IllegalArgumentException("No local implementation registered for " + lambdaInterface.getName());
+
+        Object function = Proxy.newProxyInstance(
+                lambdaInterface.getClassLoader(),
+                new Class<?>[] { lambdaInterface },
+                (proxy, method, args) -> invoke(implementation, method, args));
+
+        return lambdaInterface.cast(function);
+    }
+
+    private Object invoke(ThreadLocal<Object> implementation, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class)
+            return method.invoke(implementation, args);
+
+        Future<Object> result = executor.submit(() -> method.invoke(implementation.get(), args));
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InvocationTargetException)
+                throw cause.getCause();
+
+            throw cause;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,38 @@
+package com.hb.hbetl.lambdaInvokers;
+
+import com.amazonaws.services.lambda.AWSLambda;
+import com.amazonaws.services.lambda.invoke.LambdaInvokerFactory;
+
+/**
+ * Invokes the deployed aws lambda functions through {@link LambdaInvokerFactory} proxies
+ *
+ * How long an invocation is waited for is set on the lambda client (see {@link #getTimeoutSecondsFromEnv()}). Giving up
+ * on an invocation doesn't stop the function, so callers shouldn't retry one which timed out.
+ */
+public class RemoteLambdaInvoker implements LambdaInvoker {
+    public static final String TIMEOUT_SECONDS_ENV_VARIABLE = "CFG_LAMBDA_TIMEOUT_SECONDS";
+
+    // the longest a function can be configured to run for, after which it's been stopped by lambda anyway
+    public static final int DEFAULT_TIMEOUT_SECONDS = 15 * 60;
+
+    private final AWSLambda lambda;
+
+    public RemoteLambdaInvoker(AWSLambda lambda) {
+        this.lambda = lambda;
+    }
+
+    public static int getTimeoutSecondsFromEnv() {
+        String timeoutSeconds = System.getenv(TIMEOUT_SECONDS_ENV_VARIABLE);
+        if (timeoutSeconds == null || timeoutSeconds.isEmpty())
+            return DEFAULT_TIMEOUT_SECONDS;
+
+        return Integer.parseInt(timeoutSeconds);
+    }
+
+    @Override
+    public <T> T getFunction(Class<T> lambdaInterface) {
+        return LambdaInvokerFactory.builder()
+                .lambdaClient(lambda)
+                .build(lambdaInterface);
+    }
+}
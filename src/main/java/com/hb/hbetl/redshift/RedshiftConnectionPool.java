@@ -0,0 +1,322 @@
+package com.hb.hbetl.redshift;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of redshift connections which are only opened when they're first needed.
+ *
+ * {@link #getConnection()} hands out a {@link Connection} which only supports {@link Connection#createStatement()}
+ * (the only way the etl uses connections). Each statement borrows a physical connection from the pool & returns it when
+ * the statement is closed, so a transaction run on a single statement (begin ... commit) always stays on one
+ * connection. Connections which have been idle for a while are validated before they're reused & any connection which
+ * can't be rolled back after a failed statement (eg. a broken pipe) is thrown away, so a stale connection only fails
+ * the statement which found it.
+ *
+ * When local lambdas share the pool every lambda thread can be running a statement at once, so the pool needs a
+ * connection per local lambda thread (plus one for the etl itself) or the lambdas end up waiting on each other, see
+ * {@link #getMaxSizeFromEnv(int)}.
+ */
+public class RedshiftConnectionPool implements Closeable {
+    public static final String MAX_SIZE_ENV_VARIABLE = "CFG_REDSHIFT_POOL_SIZE";
+    public static final int DEFAULT_MAX_SIZE = 4;
+    public static final long DEFAULT_VALIDATION_IDLE_MILLIS = 30 * 1000;
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30 * 60 * 1000;
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private static final Logger LOGGER = LogManager.getLogger(RedshiftConnectionPool.class);
+
+    /**
+     * Opens a new physical connection
+     */
+    public interface ConnectionFactory {
+        Connection openConnection() throws SQLException, ClassNotFoundException;
+    }
+
+    private static class PooledConnection {
+        final Connection connection;
+        long lastReturnedMillis;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.lastReturnedMillis = System.currentTimeMillis();
+        }
+    }
+
+    private final ConnectionFactory connectionFactory;
+    private final Semaphore availableConnections;
+    private final Deque<PooledConnection> idleConnections;
+
+    private long validationIdleMillis = DEFAULT_VALIDATION_IDLE_MILLIS;
+    private long borrowTimeoutMillis = DEFAULT_BORROW_TIMEOUT_MILLIS;
+    private volatile boolean closed;
+
+    public RedshiftConnectionPool(ConnectionFactory connectionFactory, int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be at least 1");
+
+        this.connectionFactory = connectionFactory;
+        this.availableConnections = new Semaphore(maxSize, true);
+        this.idleConnections = new ArrayDeque<>();
+    }
+
+    public static int getMaxSizeFromEnv() {
+        return getMaxSizeFromEnv(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param defaultMaxSize size used when {@link #MAX_SIZE_ENV_VARIABLE} isn't set, eg. sized to the number of local
+     *                       lambda threads sharing the pool
+     */
+    public static int getMaxSizeFromEnv(int defaultMaxSize) {
+        String maxSize = System.getenv(MAX_SIZE_ENV_VARIABLE);
+        if (maxSize == null || maxSize.isEmpty())
+            return defaultMaxSize;
+
+        return Integer.parseInt(maxSize);
+    }
+
+    /**
+     * @param validationIdleMillis connections idle for longer than this are validated before they're reused
+     */
+    public RedshiftConnectionPool setValidationIdleMillis(long validationIdleMillis) {
+        this.validationIdleMillis = validationIdleMillis;
+        return this;
+    }
+
+    /**
+     * @param borrowTimeoutMillis how long creating a statement waits for a connection when they're all in use
+     */
+    public RedshiftConnectionPool setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return a connection backed by this pool. Closing it does nothing, the physical connections are closed with the pool
+     */
+    public Connection getConnection() {
+        Object connection = Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                (proxy, method, args) -> invokeConnection((Connection) proxy, method, args));
+
+        return (Connection) connection;
+    }
+
+    public synchronized int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        synchronized (this) {
+            idleConnections.forEach(pooledConnection -> closeQuietly(pooledConnection.connection));
+            idleConnections.clear();
+        }
+    }
+
+    private Object invokeConnection(Connection proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "createStatement":
+                return createStatement(proxy, method, args);
+            case "close":
+                return null;
+            case "isClosed":
+                return closed;
+            case "isValid":
+                return !closed;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "RedshiftConnectionPool connection";
+            default:
+                throw new SQLFeatureNotSupportedException("Pooled redshift connections only support createStatement, not " + method.getName());
+        }
+    }
+
+    private Statement createStatement(Connection proxy, Method method, Object[] args) throws Throwable {
+        PooledConnection pooledConnection = borrow();
+
+        Statement statement;
+        try {
+            statement = (Statement) method.invoke(pooledConnection.connection, args);
+        } catch (InvocationTargetException e) {
+            release(pooledConnection, true);
+            throw e.getCause();
+        }
+
+        PooledStatement pooledStatement = new PooledStatement(proxy, pooledConnection, statement);
+        Object statementProxy = Proxy.newProxyInstance(
+                Statement.class.getClassLoader(),
+                new Class<?>[] { Statement.class },
+                (statementProxyInstance, statementMethod, statementArgs) -> pooledStatement.invoke(statementMethod, statementArgs));
+
+        return (Statement) statementProxy;
+    }
+
+    private PooledConnection borrow() throws SQLException {
+        if (closed)
+            throw new SQLException("Redshift connection pool is closed");
+
+        try {
+            if (!availableConnections.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS))
+                throw new SQLException(String.format("Timed out after %dms waiting for a redshift connection", borrowTimeoutMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a redshift connection", e);
+        }
+
+        try {
+            PooledConnection pooledConnection;
+            while ((pooledConnection = pollIdleConnection()) != null) {
+                if (isUsable(pooledConnection))
+                    return pooledConnection;
+
+                LOGGER.info("Discarding stale redshift connection");
+                closeQuietly(pooledConnection.connection);
+            }
+
+            LOGGER.debug("Opening redshift connection");
+            return new PooledConnection(connectionFactory.openConnection());
+        } catch (SQLException | RuntimeException e) {
+            availableConnections.release();
+            throw e;
+        } catch (ClassNotFoundException e) {
+            availableConnections.release();
+            throw new SQLException("Redshift jdbc driver not found", e);
+        }
+    }
+
+    /**
+     * @param failed if the connection was used by a statement which failed, in which case it's rolled back (to end any
+     *               transaction the statement was part of) & thrown away if that fails too
+     */
+    private void release(PooledConnection pooledConnection, boolean failed) {
+        try {
+            if (failed && !rollback(pooledConnection.connection)) {
+                LOGGER.info("Discarding redshift connection which couldn't be rolled back");
+                closeQuietly(pooledConnection.connection);
+                return;
+            }
+
+            if (closed) {
+                closeQuietly(pooledConnection.connection);
+                return;
+            }
+
+            pooledConnection.lastReturnedMillis = System.currentTimeMillis();
+            synchronized (this) {
+                idleConnections.addFirst(pooledConnection);
+            }
+        } finally {
+            availableConnections.release();
+        }
+    }
+
+    private synchronized PooledConnection pollIdleConnection() {
+        return idleConnections.pollFirst();
+    }
+
+    private boolean isUsable(PooledConnection pooledConnection) {
+        try {
+            if (pooledConnection.connection.isClosed())
+                return false;
+
+            if (System.currentTimeMillis() - pooledConnection.lastReturnedMillis < validationIdleMillis)
+                return true;
+
+            return pooledConnection.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static boolean rollback(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("rollback");
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Failed to close redshift connection", e);
+        }
+    }
+
+    /**
+     * A statement on a borrowed connection, which goes back to the pool when the statement is closed
+     */
+    private class PooledStatement {
+        private final Connection connectionProxy;
+        private final PooledConnection pooledConnection;
+        private final Statement statement;
+
+        private boolean failed;
+        private boolean released;
+
+        PooledStatement(Connection connectionProxy, PooledConnection pooledConnection, Statement statement) {
+            this.connectionProxy = connectionProxy;
+            this.pooledConnection = pooledConnection;
+            this.statement = statement;
+        }
+
+        Object invoke(Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    close();
+                    return null;
+                case "getConnection":
+                    return connectionProxy;
+                default:
+                    break;
+            }
+
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException)
+                    failed = true;
+
+                throw e.getCause();
+            }
+        }
+
+        private void close() {
+            if (released)
+                return;
+
+            released = true;
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                failed = true;
+            }
+
+            release(pooledConnection, failed);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.hb.hbetl.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uploads a stream straight into s3 without writing it to a temp file first.
+ *
+ * Bodies smaller than the part size are sent as a single put with a known content length, larger ones as a multipart
+ * upload. Either way at most one part is held in memory at a time.
+ */
+public class S3StreamUploader {
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024; // smallest part size s3 accepts
+    public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+    private static final int DEFAULT_INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final AmazonS3 s3;
+    private final int partSize;
+
+    public S3StreamUploader(AmazonS3 s3) {
+        this(s3, DEFAULT_PART_SIZE);
+    }
+
+    public S3StreamUploader(AmazonS3 s3, int partSize) {
+        if (partSize < MIN_PART_SIZE)
+            throw new IllegalArgumentException("partSize must be at least " + MIN_PART_SIZE);
+
+        this.s3 = s3;
+        this.partSize = partSize;
+    }
+
+    /**
+     * @param contentLengthHint expected length of the stream (eg. from a Content-Length header) used to size the
+     *                          buffer, or -1 if unknown. The stream is read to the end regardless
+     * @param metadata metadata for the new object, its content length is set by the upload
+     * @return number of bytes uploaded
+     */
+    public long upload(InputStream input, long contentLengthHint, String bucket, String key, ObjectMetadata metadata)
+            throws IOException {
+
+        int initialBufferSize = (contentLengthHint >= 0 && contentLengthHint < partSize)
+                ? (int) contentLengthHint + 1 // +1 so a correct hint reads to eof without growing the buffer
+                : Math.min(DEFAULT_INITIAL_BUFFER_SIZE, partSize);
+
+        byte[] buffer = new byte[initialBufferSize];
+        int length = IOUtils.read(input, buffer);
+        while (length == buffer.length && buffer.length < partSize) {
+            buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, partSize));
+            length += IOUtils.read(input, buffer, length, buffer.length - length);
+        }
+
+        if (length < partSize) {
+            metadata.setContentLength(length);
+            s3.putObject(bucket, key, new ByteArrayInputStream(buffer, 0, length), metadata);
+
+            return length;
+        }
+
+        return uploadMultipart(input, buffer, bucket, key, metadata);
+    }
+
+    /**
+     * @param firstPart a full part which has already been read from the input
+     */
+    private long uploadMultipart(InputStream input, byte[] firstPart, String bucket, String key, ObjectMetadata metadata)
+            throws IOException {
+
+        String uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key, metadata)).getUploadId();
+        try {
+            List<PartETag> partETags = new ArrayList<>();
+            byte[] buffer = firstPart;
+            int length = firstPart.length;
+            long totalLength = 0;
+
+            while (length > 0) {
+                UploadPartRequest partRequest = new UploadPartRequest()
+                        .withBucketName(bucket)
+                        .withKey(key)
+                        .withUploadId(uploadId)
+                        .withPartNumber(partETags.size() + 1)
+                        .withInputStream(new ByteArrayInputStream(buffer, 0, length))
+                        .withPartSize(length);
+
+                partETags.add(s3.uploadPart(partRequest).getPartETag());
+                totalLength += length;
+
+                length = (length < buffer.length) ? 0 : IOUtils.read(input, buffer);
+            }
+
+            s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags));
+
+            return totalLength;
+        } catch (IOException | RuntimeException e) {
+            s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.hb.hbetl.statReportEtl;
+
+import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
+import org.apache.poi.ss.usermodel.Cell;
+
+import static com.hb.hbetl.statReportEtl.StatReportProcessor.CSV_VALUE_DELIMITER;
+
+/**
+ * Cell data checks used by {@link StatFileColumnSchema#validateCellSchema(CharSequence, int)}. The checks for a column
+ * are picked once from its type, and each one is a single scan over the cell's chars (no regex matching).
+ */
+final class StatFileCellValidators {
+    private static final char DELIMITER = CSV_VALUE_DELIMITER.charAt(0);
+
+    interface CellValidator {
+        void validate(CharSequence cellData, int columnNum) throws StatReportCellParseException;
+    }
+
+    private StatFileCellValidators() {}
+
+    static CellValidator forColumn(int headerColumnType, int precision) {
+        switch (headerColumnType) {
+            case Cell.CELL_TYPE_STRING:
+                return (cellData, columnNum) -> validateStringCell(cellData, columnNum, precision);
+            case Cell.CELL_TYPE_NUMERIC:
+                return StatFileCellValidators::validateNumericCell;
+            default:
+                return StatFileCellValidators::validateExcludesDelimiter;
+        }
+    }
+
+    /**
+     * The primary key must be a non empty string of ascii digits
+     */
+    static void validatePrimaryKey(CharSequence cellData, int columnNum) throws StatReportCellParseException {
+        int length = cellData.length();
+        boolean valid = length > 0;
+
+        for (int i = 0; i < length && valid; i++) {
+            valid = isDigit(cellData.charAt(i));
+        }
+
+        if (!valid)
+            throw new StatReportCellParseException(columnNum, "Invalid primaryKey. Cell value:'" + cellData + "'");
+    }
+
+    static void validateExcludesDelimiter(CharSequence cellData, int columnNum) throws StatReportCellParseException {
+        if (containsDelimiter(cellData))
+            throw delimiterException(cellData, columnNum);
+    }
+
+    private static void validateStringCell(CharSequence cellData, int columnNum, int precision)
+            throws StatReportCellParseException {
+
+        validateExcludesDelimiter(cellData, columnNum);
+
+        if (cellData.length() > precision)
+            throw new StatReportCellParseException(columnNum, "Invalid column precision. Cell value:'" + cellData + "' Exceeded expected precision:" + precision);
+    }
+
+    /**
+     * Numeric cells may only contain digits, '.' & '-' (the delimiter check still takes precedence)
+     */
+    private static void validateNumericCell(CharSequence cellData, int columnNum) throws StatReportCellParseException {
+        boolean numeric = true;
+
+        for (int i = 0; i < cellData.length(); i++) {
+            char c = cellData.charAt(i);
+            if (c == DELIMITER)
+                throw delimiterException(cellData, columnNum);
+
+            numeric &= isDigit(c) || c == '.' || c == '-';
+        }
+
+        if (!numeric)
+            throw new StatReportCellParseException(columnNum, "Invalid numeric cell. Cell value:'" + cellData + "'");
+    }
+
+    private static boolean containsDelimiter(CharSequence cellData) {
+        for (int i = 0; i < cellData.length(); i++) {
+            if (cellData.charAt(i) == DELIMITER)
+                return true;
+        }
+
+        return false;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static StatReportCellParseException delimiterException(CharSequence cellData, int columnNum) {
+        return new StatReportCellParseException(columnNum, "Cell contains delimiter. Cell value:'" + cellData + "'");
+    }
+}
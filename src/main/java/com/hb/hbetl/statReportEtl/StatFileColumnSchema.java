@@ -1,65 +1,43 @@
 package com.hb.hbetl.statReportEtl;
 
 import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-
-import java.util.regex.Pattern;
-
-import static com.hb.hbetl.statReportEtl.StatReportProcessor.CSV_VALUE_DELIMITER;
 
 /**
  *
  */
 public final class StatFileColumnSchema {
-    private static final Pattern CELL_EXCLUDES_DELIMITER_PATTERN = Pattern.compile("[^" + CSV_VALUE_DELIMITER + "]*");
-    private static final Pattern VALID_PRIMARY_KEY_PATTERN = Pattern.compile("[0-9]+");
-    private static final Pattern VALID_NUMERIC_CELL_PATTERN = Pattern.compile("[0-9\\\\.\\\\-]*");
-
     public final String headerColumnName;
     private final int headerColumnType;
     private final int precision;
     private final StatFileType fileType;
+    private final StatFileCellValidators.CellValidator cellValidator;
 //    private final boolean nullable;
 //    private final boolean isDate;
 
-    public StatFileColumnSchema(Cell headerColumnCell, HSSFSheet sheet, StatFileType fileType) throws StatReportCellParseException {
-        this.headerColumnName = StatReportProcessor.parseCellData(headerColumnCell);
-        this.headerColumnType = headerColumnCell.getCellType();
+    public StatFileColumnSchema(String headerColumnName, int headerColumnType, int precision, StatFileType fileType) {
+        this.headerColumnName = headerColumnName;
+        this.headerColumnType = headerColumnType;
+        this.precision = precision;
         this.fileType = fileType;
-//        this.isDate = DateUtil.isCellDateFormatted(headerColumnCell);
-
-        if (headerColumnType == Cell.CELL_TYPE_STRING) {
-            precision = computeCharFieldPrecision(headerColumnCell, sheet, fileType);
-        } else {
-            precision = 0;
-        }
+        this.cellValidator = StatFileCellValidators.forColumn(headerColumnType, precision);
     }
 
-    public void validateCellSchema(String cellData, Integer columnNum) throws StatReportCellParseException {
+    public void validateCellSchema(CharSequence cellData, int columnNum) throws StatReportCellParseException {
         // Validate primary key
-        if (columnNum == fileType.primaryKeyColumnIndex) {
-            if (!VALID_PRIMARY_KEY_PATTERN.matcher(cellData).matches())
-                throw new StatReportCellParseException(columnNum, "Invalid primaryKey. Cell value:'" + cellData + "'");
-        }
+        if (columnNum == fileType.primaryKeyColumnIndex)
+            StatFileCellValidators.validatePrimaryKey(cellData, columnNum);
 
-        // make sure the cell doesn't contain the delimitor
-        if (!CELL_EXCLUDES_DELIMITER_PATTERN.matcher(cellData).matches())
-            throw new StatReportCellParseException(columnNum, "Cell contains delimiter. Cell value:'" + cellData + "'");
+        // make sure the cell doesn't contain the delimitor & matches the column type
+        cellValidator.validate(cellData, columnNum);
+    }
 
-        // validate
-        switch (headerColumnType) {
-            case Cell.CELL_TYPE_STRING:
-                if (cellData.length() > precision)
-                    throw new StatReportCellParseException(columnNum, "Invalid column precision. Cell value:'" + cellData + "' Exceeded expected precision:" + precision);
-                break;
-            case Cell.CELL_TYPE_NUMERIC:
-                if (VALID_NUMERIC_CELL_PATTERN.matcher(cellData).matches())
-                    throw new StatReportCellParseException(columnNum, "Invalid numeric cell. Cell value:'" + cellData + "'");
-            default:
-                break;
-        }
+    public int getHeaderColumnType() {
+        return headerColumnType;
+    }
+
+    public int getPrecision() {
+        return precision;
     }
 
     public String getSqlColumnDefinition() {
@@ -90,32 +68,6 @@ public final class StatFileColumnSchema {
         }
     }
 
-    private int computeCharFieldPrecision(Cell headerColumnCell, HSSFSheet sheet, StatFileType fileType)
-            throws StatReportCellParseException {
-        int maxStrLength = 0;
-        int rowNum = 0;
-
-        for (Row row : sheet) {
-            rowNum++;
-            if (rowNum <= fileType.headerRowNum)
-                continue;;
-
-            Cell cell = row.getCell(headerColumnCell.getColumnIndex());
-            if (cell == null)
-                continue;;
-
-            String val = StatReportProcessor.parseCellData(cell);
-            if (val != null && val.length() > maxStrLength) {
-                if (maxStrLength < 32) maxStrLength = 32;
-                else if (maxStrLength < 100) maxStrLength = 100;
-                else if (maxStrLength < 500) maxStrLength = 500;
-                else maxStrLength = -1;
-            }
-        }
-
-        return maxStrLength;
-    }
-
     @Override
     public int hashCode() {
         return (headerColumnName + headerColumnType).hashCode();
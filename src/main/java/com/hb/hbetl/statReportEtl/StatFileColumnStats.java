@@ -0,0 +1,86 @@
+package com.hb.hbetl.statReportEtl;
+
+import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
+import org.apache.poi.ss.usermodel.Cell;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the column schemas (names, types & char precision) of a stat report in a single pass over its rows.
+ *
+ * Create it from the header row, then feed it every data row with {@link #addRow(StatReportRow)} - either while
+ * iterating a loaded sheet or from a {@link StatReportXlsStreamReader} alongside the csv conversion.
+ */
+public class StatFileColumnStats {
+    private final StatFileType fileType;
+    private final List<String> headerColumnNames;
+    private final int[] headerColumnIndexes;
+    private final int[] headerColumnTypes;
+    private final int[] precisions;
+
+    public StatFileColumnStats(StatReportRow headerRow, StatFileType fileType) throws StatReportCellParseException {
+        this.fileType = fileType;
+        this.headerColumnNames = new ArrayList<>();
+
+        List<Integer> columnIndexes = new ArrayList<>();
+        List<Integer> columnTypes = new ArrayList<>();
+        for (int col = 0; col < headerRow.getLastCellNum(); col++) {
+            int cellType = headerRow.getCellType(col);
+            if (cellType == StatReportRow.MISSING_CELL_TYPE)
+                continue;
+
+            headerColumnNames.add(headerRow.getCellData(col));
+            columnIndexes.add(col);
+            columnTypes.add(cellType);
+        }
+
+        this.headerColumnIndexes = columnIndexes.stream().mapToInt(Integer::intValue).toArray();
+        this.headerColumnTypes = columnTypes.stream().mapToInt(Integer::intValue).toArray();
+        this.precisions = new int[headerColumnIndexes.length];
+    }
+
+    /**
+     * Updates the char precision of every string column with the cells in the given (non header) row
+     */
+    public void addRow(StatReportRow row) throws StatReportCellParseException {
+        for (int i = 0; i < headerColumnIndexes.length; i++) {
+            if (headerColumnTypes[i] != Cell.CELL_TYPE_STRING)
+                continue;
+
+            int columnIndex = headerColumnIndexes[i];
+            if (row.getCellType(columnIndex) == StatReportRow.MISSING_CELL_TYPE)
+                continue;
+
+            String val = row.getCellData(columnIndex);
+            if (val != null && val.length() > precisions[i])
+                precisions[i] = nextPrecisionBucket(precisions[i]);
+        }
+    }
+
+    /**
+     * @return schemas for every named header column, with the precision seen so far
+     */
+    public AbstractList<StatFileColumnSchema> getColumnSchemas() {
+        AbstractList<StatFileColumnSchema> schemas = new ArrayList<>();
+        for (int i = 0; i < headerColumnIndexes.length; i++) {
+            String headerColumnName = headerColumnNames.get(i);
+            if (headerColumnName == null || headerColumnName.isEmpty())
+                continue;
+
+            int precision = headerColumnTypes[i] == Cell.CELL_TYPE_STRING ? precisions[i] : 0;
+            schemas.add(new StatFileColumnSchema(headerColumnName, headerColumnTypes[i], precision, fileType));
+        }
+
+        return schemas;
+    }
+
+    private static int nextPrecisionBucket(int precision) {
+        if (precision < 32) return 32;
+        if (precision < 100) return 100;
+        if (precision < 500) return 500;
+
+        return -1;
+    }
+}
@@ -2,46 +2,106 @@ package com.hb.hbetl.statReportEtl;
 
 import com.hb.hbetl.statReportEtl.exceptions.InvalidStatSchemaException;
 import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
-import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.util.*;
 import java.util.stream.Collectors;
 
 public class StatFileSchema {
     public static final String FILE_REF_COLUMN_NAME = "file_ref";
 
-    private static Map<StatFileType, StatFileSchema> instances = new EnumMap<>(StatFileType.class);
+    private static final int COMPILED_SCHEMA_VERSION = 1;
+
+    private static final Logger LOGGER = LogManager.getLogger(StatFileSchema.class);
+
+    // stat reports are processed concurrently in local mode, so the schemas can be requested from several threads
+    private static final Map<StatFileType, StatFileSchema> instances = new EnumMap<>(StatFileType.class);
 
     // we want AbstractList's implementation of .equals() (it returns true if .equals() == true for all elements)
-    private AbstractList<StatFileColumnSchema> columnSchemas;
+    private final AbstractList<StatFileColumnSchema> columnSchemas;
 
     private final StatFileType fileType;
 
-    private StatFileSchema(StatFileType fileType) throws IOException {
+    private StatFileSchema(StatFileType fileType, AbstractList<StatFileColumnSchema> columnSchemas) {
         this.fileType = fileType;
+        this.columnSchemas = columnSchemas;
+    }
 
-        if (fileType.sampleFile == null) {
-            this.columnSchemas = new ArrayList<>();
-            return;
-        }
+    /**
+     * Infers the schema by parsing the file type's sample xls (including a full precision scan). This is slow, so it's
+     * only used by {@link StatFileSchemaCompiler} to regenerate the compiled schemas, or if they are missing.
+     */
+    public static StatFileSchema loadSchemaFromSampleFile(StatFileType fileType) throws IOException {
+        if (fileType.sampleFile == null)
+            return new StatFileSchema(fileType, new ArrayList<>());
+
+        InputStream sampleFileInputStream = StatFileSchema.class.getResourceAsStream(fileType.sampleFile);
+        if (sampleFileInputStream == null)
+            throw new IOException("Missing sample file for fileType: " + fileType.name());
 
-        InputStream sampleFileInputStream = getClass().getResourceAsStream(fileType.sampleFile);
         try (NPOIFSFileSystem poiFileSystem = new NPOIFSFileSystem(sampleFileInputStream)) {
             HSSFWorkbook workbook = new HSSFWorkbook(poiFileSystem.getRoot(), false);
             HSSFSheet sheet = workbook.getSheetAt(0);
 
-            this.columnSchemas = extractColumnSchemas(sheet);
+            return new StatFileSchema(fileType, extractColumnSchemas(sheet, fileType));
         } catch (StatReportCellParseException e) {
             throw new IOException("Failed to load validator for fileType: " + fileType.name());
         }
     }
 
+    /**
+     * @return the schema compiled by {@link StatFileSchemaCompiler}, or null if there isn't a (current) one for the file type
+     */
+    static StatFileSchema loadCompiledSchema(StatFileType fileType) throws IOException {
+        if (fileType.compiledSchemaFile == null)
+            return null;
+
+        InputStream compiledSchemaInputStream = StatFileSchema.class.getResourceAsStream(fileType.compiledSchemaFile);
+        if (compiledSchemaInputStream == null)
+            return null;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(compiledSchemaInputStream))) {
+            if (input.readInt() != COMPILED_SCHEMA_VERSION || !fileType.name().equals(input.readUTF()))
+                return null;
+
+            int columnCount = input.readInt();
+            AbstractList<StatFileColumnSchema> columnSchemas = new ArrayList<>(columnCount);
+            for (int i = 0; i < columnCount; i++) {
+                String headerColumnName = input.readUTF();
+                int headerColumnType = input.readInt();
+                int precision = input.readInt();
+
+                columnSchemas.add(new StatFileColumnSchema(headerColumnName, headerColumnType, precision, fileType));
+            }
+
+            return new StatFileSchema(fileType, columnSchemas);
+        }
+    }
+
+    /**
+     * Writes the schema in the compact format read by {@link #getSchemaForFileType(StatFileType)}
+     */
+    public void writeCompiledSchema(OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeInt(COMPILED_SCHEMA_VERSION);
+        output.writeUTF(fileType.name());
+        output.writeInt(columnSchemas.size());
+
+        for (StatFileColumnSchema columnSchema : columnSchemas) {
+            output.writeUTF(columnSchema.headerColumnName);
+            output.writeInt(columnSchema.getHeaderColumnType());
+            output.writeInt(columnSchema.getPrecision());
+        }
+
+        output.flush();
+    }
+
     public String getSqlTableDefinition() {
         String tableName = fileType.sqlTableName;
         String columnDefSql = columnSchemas.stream()
@@ -57,8 +117,15 @@ public class StatFileSchema {
     }
 
     public void validateSchema(HSSFSheet sheet, String filename) throws InvalidStatSchemaException {
+        validateSchema(new StatReportSheetRow(sheet.getRow(fileType.headerRowNum - 1)), filename);
+    }
+
+    /**
+     * Only the header names & types are compared, so none of the data rows need to be read to validate a file
+     */
+    public void validateSchema(StatReportRow headerRow, String filename) throws InvalidStatSchemaException {
         try {
-            AbstractList<StatFileColumnSchema> schemas = extractColumnSchemas(sheet);
+            AbstractList<StatFileColumnSchema> schemas = new StatFileColumnStats(headerRow, fileType).getColumnSchemas();
 
             if (!columnSchemas.equals(schemas))
                 throw new InvalidStatSchemaException(filename);
@@ -68,26 +135,60 @@ public class StatFileSchema {
         }
     }
 
-    private AbstractList<StatFileColumnSchema> extractColumnSchemas(HSSFSheet sheet)
+    private static AbstractList<StatFileColumnSchema> extractColumnSchemas(HSSFSheet sheet, StatFileType fileType)
             throws StatReportCellParseException {
 
         Row headerRow = sheet.getRow(fileType.headerRowNum - 1);
+        StatFileColumnStats columnStats = new StatFileColumnStats(new StatReportSheetRow(headerRow), fileType);
 
-        AbstractList<StatFileColumnSchema> schemas = new ArrayList<>();
-        for (Cell cell : headerRow) {
-            StatFileColumnSchema columnSchema = new StatFileColumnSchema(cell, sheet, fileType);
-            if (columnSchema.headerColumnName == null || columnSchema.headerColumnName.isEmpty())
+        int rowNum = 0;
+        for (Row row : sheet) {
+            rowNum++;
+            if (rowNum <= fileType.headerRowNum)
                 continue;
 
-            schemas.add(columnSchema);
+            columnStats.addRow(new StatReportSheetRow(row));
         }
 
-        return schemas;
+        return columnStats.getColumnSchemas();
     }
 
-    public static StatFileSchema getSchemaForFileType(StatFileType fileType) throws IOException {
+    /**
+     * Validates the header row of a stat report against the known schema for its file type. The header is first checked
+     * against the precomputed {@link StatFileSchemaFingerprint}, only falling back to comparing against the full schema
+     * if the fingerprint doesn't match.
+     */
+    public static void validateSchemaForFileType(StatFileType fileType, StatReportRow headerRow, String filename)
+            throws IOException {
+
+        try {
+            if (StatFileSchemaFingerprint.matches(headerRow, fileType))
+                return;
+        } catch (StatReportCellParseException e) {
+            throw new InvalidStatSchemaException(filename, e);
+        }
+
+        getSchemaForFileType(fileType).validateSchema(headerRow, filename);
+
+        if (fileType.schemaFingerprintFile != null)
+            LOGGER.warn("{} matches the {} schema but not its fingerprint - {} may need regenerating",
+                    filename, fileType.name(), fileType.schemaFingerprintFile);
+    }
+
+    public static synchronized StatFileSchema getSchemaForFileType(StatFileType fileType) throws IOException {
         if (!instances.containsKey(fileType)) {
-            instances.put(fileType, new StatFileSchema(fileType));
+            long startTime = System.currentTimeMillis();
+
+            StatFileSchema schema = loadCompiledSchema(fileType);
+            if (schema == null) {
+                if (fileType.sampleFile != null)
+                    LOGGER.warn("No compiled schema found for {}, inferring it from {}", fileType.name(), fileType.sampleFile);
+
+                schema = loadSchemaFromSampleFile(fileType);
+            }
+
+            LOGGER.debug("Loaded {} schema in {}ms", fileType.name(), System.currentTimeMillis() - startTime);
+            instances.put(fileType, schema);
         }
 
         return instances.get(fileType);
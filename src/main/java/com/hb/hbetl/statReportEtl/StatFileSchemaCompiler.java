@@ -0,0 +1,53 @@
+package com.hb.hbetl.statReportEtl;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Build time tool (run by the compileStatFileSchemas gradle task) which infers the schema of each {@link StatFileType}
+ * from its sample xls, and writes it in the compact format {@link StatFileSchema#getSchemaForFileType(StatFileType)}
+ * loads, along with its {@link StatFileSchemaFingerprint}.
+ */
+public final class StatFileSchemaCompiler {
+    private StatFileSchemaCompiler() {}
+
+    /**
+     * @param args output directory for the generated resources
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1)
+            throw new IllegalArgumentException("Usage: StatFileSchemaCompiler <outputDir>");
+
+        File outputDir = new File(args[0]);
+
+        for (StatFileType fileType : StatFileType.values()) {
+            if (fileType.sampleFile == null)
+                continue;
+
+            long startTime = System.currentTimeMillis();
+            StatFileSchema schema = StatFileSchema.loadSchemaFromSampleFile(fileType);
+
+            if (fileType.compiledSchemaFile != null) {
+                File compiledSchemaFile = new File(outputDir, fileType.compiledSchemaFile);
+                FileUtils.forceMkdir(compiledSchemaFile.getParentFile());
+
+                try (OutputStream output = new FileOutputStream(compiledSchemaFile)) {
+                    schema.writeCompiledSchema(output);
+                }
+            }
+
+            if (fileType.schemaFingerprintFile != null) {
+                String fingerprint = StatFileSchemaFingerprint.of(schema.getColumnSchemas());
+                FileUtils.writeStringToFile(new File(outputDir, fileType.schemaFingerprintFile), fingerprint + "\n", StandardCharsets.UTF_8);
+            }
+
+            System.out.println(String.format("Compiled %s schema (%d columns) from %s in %dms",
+                    fileType.name(), schema.getColumnSchemas().size(), fileType.sampleFile, System.currentTimeMillis() - startTime));
+        }
+    }
+}
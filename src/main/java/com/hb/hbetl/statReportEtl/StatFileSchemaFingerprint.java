@@ -0,0 +1,83 @@
+package com.hb.hbetl.statReportEtl;
+
+import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash of a stat file's header layout (the name & cell type of each column in the header row).
+ *
+ * Two files with the same fingerprint pass {@link StatFileSchema#validateSchema(StatReportRow, String)} against each
+ * other, so incoming reports can be checked against the precomputed fingerprint resource for their file type
+ * without loading any schema. The fingerprint resources are generated at build time by {@link StatFileSchemaCompiler}.
+ */
+public final class StatFileSchemaFingerprint {
+    private static final Map<StatFileType, String> knownFingerprints = new EnumMap<>(StatFileType.class);
+
+    private StatFileSchemaFingerprint() {}
+
+    public static String of(StatReportRow headerRow, StatFileType fileType) throws StatReportCellParseException {
+        return of(new StatFileColumnStats(headerRow, fileType).getColumnSchemas());
+    }
+
+    public static String of(List<StatFileColumnSchema> columnSchemas) {
+        StringBuilder headerLayout = new StringBuilder();
+        for (StatFileColumnSchema columnSchema : columnSchemas) {
+            headerLayout.append(columnSchema.headerColumnName)
+                    .append('\t')
+                    .append(columnSchema.getHeaderColumnType())
+                    .append('\n');
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(headerLayout.toString().getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return true if the header row matches the precomputed fingerprint for the file type. false if it doesn't, or if
+     *          the fingerprint resource for the file type is missing
+     */
+    public static boolean matches(StatReportRow headerRow, StatFileType fileType)
+            throws StatReportCellParseException, IOException {
+
+        String knownFingerprint = getKnownFingerprint(fileType);
+
+        return knownFingerprint != null && knownFingerprint.equals(of(headerRow, fileType));
+    }
+
+    public static synchronized String getKnownFingerprint(StatFileType fileType) throws IOException {
+        if (fileType.schemaFingerprintFile == null)
+            return null;
+
+        if (!knownFingerprints.containsKey(fileType)) {
+            try (InputStream fingerprintInputStream = StatFileSchemaFingerprint.class.getResourceAsStream(fileType.schemaFingerprintFile)) {
+                String fingerprint = (fingerprintInputStream == null)
+                        ? null
+                        : IOUtils.toString(fingerprintInputStream, StandardCharsets.UTF_8).trim();
+
+                knownFingerprints.put(fileType, fingerprint);
+            }
+        }
+
+        return knownFingerprints.get(fileType);
+    }
+}
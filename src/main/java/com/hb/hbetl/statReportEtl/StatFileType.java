@@ -6,19 +6,24 @@ import com.hb.hbetl.statReportEtl.exceptions.InvalidStatFileException;
  *
  */
 public enum StatFileType {
-    JOB(0, 3, "job_stat", "/sampleSchemas/sampleJobSchema.xls"), // TODO - Make this sample file muuuuuuuch smaller
-    PERMIT(4, 3, "permit_stat", null);
+    JOB(0, 3, "job_stat", "/sampleSchemas/sampleJobSchema.xls", "/sampleSchemas/sampleJobSchema.schema", "/sampleSchemas/sampleJobSchema.fingerprint"),
+    PERMIT(4, 3, "permit_stat", null, null, null);
 
     public final int primaryKeyColumnIndex;
     public final int headerRowNum;
     public final String sqlTableName;
     public final String sampleFile;
+    public final String compiledSchemaFile;
+    public final String schemaFingerprintFile;
 
-    StatFileType(int primaryKeyColumnIndex, int headerRowNum, String sqlTableName, String sampleFile) {
+    StatFileType(int primaryKeyColumnIndex, int headerRowNum, String sqlTableName, String sampleFile,
+                 String compiledSchemaFile, String schemaFingerprintFile) {
         this.primaryKeyColumnIndex = primaryKeyColumnIndex;
         this.headerRowNum = headerRowNum;
         this.sqlTableName = sqlTableName;
         this.sampleFile = sampleFile;
+        this.compiledSchemaFile = compiledSchemaFile;
+        this.schemaFingerprintFile = schemaFingerprintFile;
     }
 
     public static StatFileType getFileTypeFromFilename(String filename) throws InvalidStatFileException {
@@ -0,0 +1,134 @@
+package com.hb.hbetl.statReportEtl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.FieldPosition;
+import java.util.Arrays;
+
+/**
+ * Reusable buffer a csv row is encoded into, one cell at a time. Numbers & dates are written as digits straight into
+ * the buffer, and the cell currently being written can be read back (for validation) as a {@link CharSequence}, so
+ * encoding a row doesn't allocate any strings.
+ */
+public class StatReportCsvRowBuffer {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final CurrentCell currentCell;
+    private final StringBuffer numberFormatBuffer;
+    private final FieldPosition numberFormatPosition;
+
+    private char[] chars;
+    private int length;
+    private int cellStart;
+
+    public StatReportCsvRowBuffer() {
+        this.currentCell = new CurrentCell();
+        this.numberFormatBuffer = new StringBuffer();
+        this.numberFormatPosition = new FieldPosition(0);
+        this.chars = new char[INITIAL_CAPACITY];
+    }
+
+    public void clear() {
+        length = 0;
+        cellStart = 0;
+    }
+
+    public void startCell() {
+        cellStart = length;
+    }
+
+    /**
+     * @return the data written since the last call to {@link #startCell()}. Only valid until the buffer is next modified
+     */
+    public CharSequence currentCell() {
+        return currentCell;
+    }
+
+    public void append(char c) {
+        ensureCapacity(length + 1);
+        chars[length++] = c;
+    }
+
+    public void append(String s) {
+        ensureCapacity(length + s.length());
+        s.getChars(0, s.length(), chars, length);
+        length += s.length();
+    }
+
+    public void appendBoolean(boolean b) {
+        append(b ? "true" : "false");
+    }
+
+    public void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            append(Long.toString(value));
+            return;
+        }
+
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+
+        int digitCount = 1;
+        for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+            digitCount++;
+        }
+
+        ensureCapacity(length + digitCount);
+        for (int i = length + digitCount - 1; i >= length; i--) {
+            chars[i] = (char) ('0' + (value % 10));
+            value /= 10;
+        }
+
+        length += digitCount;
+    }
+
+    /**
+     * Writes the same text as {@link StatReportProcessor#formatNumericCellData(double)}
+     */
+    public void appendNumeric(double value) {
+        if (StatReportProcessor.isPlainIntegerCellValue(value)) {
+            appendLong((long) value);
+            return;
+        }
+
+        numberFormatBuffer.setLength(0);
+        StatReportProcessor.getNumericCellFormat().format(value, numberFormatBuffer, numberFormatPosition);
+
+        ensureCapacity(length + numberFormatBuffer.length());
+        numberFormatBuffer.getChars(0, numberFormatBuffer.length(), chars, length);
+        length += numberFormatBuffer.length();
+    }
+
+    public void writeTo(Writer output) throws IOException {
+        output.write(chars, 0, length);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > chars.length)
+            chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+    }
+
+    private class CurrentCell implements CharSequence {
+        @Override
+        public int length() {
+            return length - cellStart;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[cellStart + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, cellStart + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, cellStart, length());
+        }
+    }
+}
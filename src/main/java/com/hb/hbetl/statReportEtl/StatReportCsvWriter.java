@@ -0,0 +1,86 @@
+package com.hb.hbetl.statReportEtl;
+
+import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.List;
+
+import static com.hb.hbetl.statReportEtl.StatReportProcessor.CSV_VALUE_DELIMITER;
+
+/**
+ * Writes the rows of a stat report as redshift copyable csv. Each row is encoded into a reused
+ * {@link StatReportCsvRowBuffer} and validated in place, and only written out once every cell is valid.
+ *
+ * The csv can be split into several parts (eg. one per redshift slice so they're copied in parallel), rows are spread
+ * across the parts round robin.
+ */
+public class StatReportCsvWriter implements Closeable {
+    private final Writer[] csvPartOutputs;
+    private final List<StatFileColumnSchema> columnSchemas;
+    private final String fileRef;
+    private final StatReportCsvRowBuffer csvRow;
+
+    private int writtenRowCount;
+
+    public StatReportCsvWriter(File outputCsv, List<StatFileColumnSchema> columnSchemas, String statFileName)
+            throws FileNotFoundException {
+
+        this(Collections.singletonList(new FileOutputStream(outputCsv)), columnSchemas, statFileName);
+    }
+
+    /**
+     * @param csvPartOutputs outputs for each part of the csv, they're closed when the writer is closed
+     */
+    public StatReportCsvWriter(List<? extends OutputStream> csvPartOutputs, List<StatFileColumnSchema> columnSchemas, String statFileName) {
+        // same (platform default) encoding the csv has always been written with
+        this.csvPartOutputs = csvPartOutputs.stream()
+                .map(csvPartOutput -> new BufferedWriter(new OutputStreamWriter(csvPartOutput)))
+                .toArray(Writer[]::new);
+        this.columnSchemas = columnSchemas;
+        this.fileRef = FilenameUtils.getBaseName(statFileName);
+        this.csvRow = new StatReportCsvRowBuffer();
+    }
+
+    /**
+     * @throws StatReportCellParseException if any cell in the row is invalid, in which case nothing is written
+     */
+    public void writeRow(StatReportRow row) throws StatReportCellParseException, IOException {
+        csvRow.clear();
+        int colNum = 0;
+
+        // Parse cell data and write it to the csv output
+        for (StatFileColumnSchema columnSchema : columnSchemas) {
+            csvRow.startCell();
+            row.appendCellData(colNum, csvRow);
+            columnSchema.validateCellSchema(csvRow.currentCell(), colNum);
+
+            csvRow.append(CSV_VALUE_DELIMITER);
+
+            colNum++;
+        }
+
+        // Last column is the statFileName
+        csvRow.append(fileRef);
+        csvRow.append('\n');
+
+        csvRow.writeTo(csvPartOutputs[writtenRowCount++ % csvPartOutputs.length]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException closeFailure = null;
+        for (Writer csvPartOutput : csvPartOutputs) {
+            try {
+                csvPartOutput.close();
+            } catch (IOException e) {
+                if (closeFailure == null)
+                    closeFailure = e;
+            }
+        }
+
+        if (closeFailure != null)
+            throw closeFailure;
+    }
+}
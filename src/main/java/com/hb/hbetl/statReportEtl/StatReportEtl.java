@@ -1,10 +1,12 @@
 package com.hb.hbetl.statReportEtl;
 
-import com.amazonaws.services.lambda.AWSLambda;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.hb.hbetl.HbEtl;
+import com.hb.hbetl.lambdaInvokers.LambdaInvoker;
 import com.hb.hbetl.statReportEtl.exceptions.InvalidStatFileException;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -13,9 +15,14 @@ import java.net.URL;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -37,15 +44,17 @@ public class StatReportEtl implements Runnable {
 
     private final Connection redshiftConnection;
     private final AmazonS3 s3;
-    private final AWSLambda lambda;
+    private final LambdaInvoker lambdaInvoker;
 
     private List<Integer> yearsToLoad;
+    private boolean incrementalLoad = true;
+    private Pattern reprocessS3KeysWithPattern;
     private Exception failure;
 
-    public StatReportEtl(Connection redshiftConnection, AmazonS3 s3, AWSLambda lambda) {
+    public StatReportEtl(Connection redshiftConnection, AmazonS3 s3, LambdaInvoker lambdaInvoker) {
         this.redshiftConnection = redshiftConnection;
         this.s3 = s3;
-        this.lambda = lambda;
+        this.lambdaInvoker = lambdaInvoker;
     }
 
     public StatReportEtl setYearsToLoad(List<Integer> yearsToLoad) {
@@ -53,6 +62,24 @@ public class StatReportEtl implements Runnable {
         return this;
     }
 
+    /**
+     * @param incrementalLoad if true only new or changed processed csvs are copied into redshift, otherwise the stat
+     *                        tables are truncated & every processed csv is copied in
+     */
+    public StatReportEtl setIncrementalLoad(boolean incrementalLoad) {
+        this.incrementalLoad = incrementalLoad;
+        return this;
+    }
+
+    /**
+     * @param reprocessS3KeysWithPattern stat reports already in s3 which match this are processed again, even if they
+     *                                   haven't changed
+     */
+    public StatReportEtl setReprocessS3KeysWithPattern(Pattern reprocessS3KeysWithPattern) {
+        this.reprocessS3KeysWithPattern = reprocessS3KeysWithPattern;
+        return this;
+    }
+
     @Override
     public void run() {
         try {
@@ -81,26 +108,38 @@ public class StatReportEtl implements Runnable {
             LOGGER.info("");
             LOGGER.info("Loading stat reports");
 
-            statReportLoader = new StatReportLoader(statReportFileUrls, s3, lambda).reloadAll(true);
+            statReportLoader = new StatReportLoader(statReportFileUrls, s3, lambdaInvoker).reloadAll(true);
             List<String> statReportS3Keys = statReportLoader.call();
 
-            LOGGER.info("Loaded " + statReportS3Keys.size() + " reports");
+            LOGGER.info("Loaded " + statReportS3Keys.size() + " new or changed reports");
+            LOGGER.info("Skipped " + statReportLoader.getSkippedCount() + " unchanged reports");
             LOGGER.info("Failed to load " + statReportLoader.getFailuresByFilename().size() + " files");
             statReportLoader.getFailuresByFilename().forEach(LOGGER::debug);
 
+            // Get Stat files which were loaded by an earlier run but never (successfully) processed
+            LOGGER.info("");
+            LOGGER.info("Find stat reports with missing or stale processed csvs");
+            List<String> statFilesWithStaleCsvs = getKeysWithStaleCsvsFromS3(statReportFileUrls);
+            LOGGER.info("Found " + statFilesWithStaleCsvs.size() + " with missing or stale processed csvs");
+            statFilesWithStaleCsvs.stream()
+                    .filter(s3Key -> !statReportS3Keys.contains(s3Key))
+                    .forEach(statReportS3Keys::add);
+
             // Get Stat files to reprocess
             LOGGER.info("");
             LOGGER.info("Find stat reports to reprocess");
-            List<String> statFilesToReprocess = getKeysToReprocessFromS3(Pattern.compile(".*job\\d+1[67]\\.xls"));
+            List<String> statFilesToReprocess = getKeysToReprocessFromS3(reprocessS3KeysWithPattern);
             LOGGER.info("Found " + statFilesToReprocess.size() + " for reprocessing");
-            statReportS3Keys.addAll(statFilesToReprocess);
+            statFilesToReprocess.stream()
+                    .filter(s3Key -> !statReportS3Keys.contains(s3Key))
+                    .forEach(statReportS3Keys::add);
 
             // Process downloaded stat files
             LOGGER.info("");
             LOGGER.info("Processing stat reports");
 
             LOGGER.info("Processing " + statReportS3Keys.size() + " files");
-            statReportProcessor = new StatReportProcessor(statReportS3Keys, lambda);
+            statReportProcessor = new StatReportProcessor(statReportS3Keys, lambdaInvoker);
             List<String> uploadedS3Files = statReportProcessor.call();
 
             LOGGER.info("Processed " + uploadedS3Files.size() + " stat reports");
@@ -124,8 +163,15 @@ public class StatReportEtl implements Runnable {
 
     public void copyStatDataToRedshift(StatFileType fileType) throws IOException, SQLException {
         createTableIfNotExists(fileType);
-        truncateTable(fileType);
-        copyCsvDataToTable(fileType);
+
+        StatReportIncrementalLoader incrementalLoader = new StatReportIncrementalLoader(redshiftConnection, s3);
+        if (incrementalLoad) {
+            incrementalLoader.load(fileType);
+        } else {
+            truncateTable(fileType);
+            copyCsvDataToTable(fileType);
+            incrementalLoader.resetLoadStatus(fileType);
+        }
     }
 
     public void createTableIfNotExists(StatFileType fileType) throws SQLException, IOException {
@@ -143,13 +189,7 @@ public class StatReportEtl implements Runnable {
     }
 
     public void copyCsvDataToTable(StatFileType fileType) throws SQLException {
-        try (Statement statement = redshiftConnection.createStatement()) {
-            statement.execute(String.format("copy %s from 's3://%s/%s' credentials '%s'",
-                    fileType.sqlTableName,
-                    HbEtl.S3_BUCKET,
-                    StatReportEtl.S3_STAT_REPORT_PROCESSED_PREFIX,
-                    HbEtl.REDSHIFT_CREDENTIALS));
-        }
+        new StatReportIncrementalLoader(redshiftConnection, s3).copyAll(fileType);
     }
 
     public boolean isSuccessful() {
@@ -182,6 +222,48 @@ public class StatReportEtl implements Runnable {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * The loader only returns reports which were downloaded this run, so a report which was downloaded but failed to
+     * process would otherwise never be processed again (its validators are already stored, so it's never refreshed).
+     *
+     * @return s3 keys of the given reports which are in s3 but have no processed csv, or one older than the report
+     */
+    private List<String> getKeysWithStaleCsvsFromS3(List<URL> statReportUrls) {
+        Map<String, Date> csvLastModifiedByFileRef = new HashMap<>();
+        forEachObjectSummary(S3_STAT_REPORT_PROCESSED_PREFIX, summary -> csvLastModifiedByFileRef.merge(
+                StatReportProcessor.getFileRefForCsvS3Key(summary.getKey()),
+                summary.getLastModified(),
+                (lastModified, partLastModified) -> lastModified.before(partLastModified) ? lastModified : partLastModified));
+
+        Set<String> statReportS3Keys = statReportUrls.stream()
+                .map(StatReportEtl::getS3KeyForStatReport)
+                .collect(Collectors.toSet());
+
+        List<String> keysWithStaleCsvs = new ArrayList<>();
+        forEachObjectSummary(S3_STAT_REPORT_PREFIX, summary -> {
+            if (!statReportS3Keys.contains(summary.getKey()))
+                return;
+
+            Date csvLastModified = csvLastModifiedByFileRef.get(FilenameUtils.getBaseName(summary.getKey()));
+            if (csvLastModified == null || csvLastModified.before(summary.getLastModified()))
+                keysWithStaleCsvs.add(summary.getKey());
+        });
+
+        return keysWithStaleCsvs;
+    }
+
+    private void forEachObjectSummary(String prefix, Consumer<S3ObjectSummary> action) {
+        ObjectListing listing = s3.listObjects(HbEtl.S3_BUCKET, prefix);
+        while (true) {
+            listing.getObjectSummaries().forEach(action);
+
+            if (!listing.isTruncated())
+                return;
+
+            listing = s3.listNextBatchOfObjects(listing);
+        }
+    }
+
     public static Set<String> getStatReportsInS3(AmazonS3 s3) {
         return s3.listObjects(HbEtl.S3_BUCKET, StatReportEtl.S3_STAT_REPORT_PREFIX)
                 .getObjectSummaries()
@@ -0,0 +1,307 @@
+package com.hb.hbetl.statReportEtl;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.hb.hbetl.HbEtl;
+import com.hb.hbetl.statReportEtl.exceptions.InvalidStatFileException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static com.hb.hbetl.statReportEtl.StatFileSchema.FILE_REF_COLUMN_NAME;
+
+/**
+ * Copies only the processed stat csvs which are new or have changed since the last load into redshift.
+ *
+ * The s3 key & etag of every csv copied into a stat table is tracked in {@link #REDSHIFT_LOAD_STATUS_TABLE}. Each load
+ * compares those against the csvs in s3 report by report (a report's csv may be split into several parts), deletes the
+ * rows (by file_ref) of any report whose csvs have changed & copies the csvs of new/changed reports in with a manifest
+ * copy.
+ */
+public class StatReportIncrementalLoader {
+    public static final String REDSHIFT_LOAD_STATUS_TABLE = "stat_report_load_status";
+    public static final String S3_STAT_REPORT_MANIFEST_PREFIX = "nyc.stat-reports-manifests";
+
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final String GZIP_MANIFEST_SUFFIX = ".gz.manifest";
+
+    private static final Logger LOGGER = LogManager.getLogger(StatReportIncrementalLoader.class);
+
+    private final Connection redshiftConnection;
+    private final AmazonS3 s3;
+
+    private int newFileCount;
+    private int changedFileCount;
+    private int unchangedFileCount;
+
+    public StatReportIncrementalLoader(Connection redshiftConnection, AmazonS3 s3) {
+        this.redshiftConnection = redshiftConnection;
+        this.s3 = s3;
+    }
+
+    /**
+     * @return number of reports copied in by the last load which had never been loaded before
+     */
+    public int getNewFileCount() {
+        return newFileCount;
+    }
+
+    /**
+     * @return number of reports reloaded (or removed) by the last load because their csvs had changed
+     */
+    public int getChangedFileCount() {
+        return changedFileCount;
+    }
+
+    public int getUnchangedFileCount() {
+        return unchangedFileCount;
+    }
+
+    /**
+     * Copies any new or changed processed csvs of the given type into its (already created) table
+     */
+    public void load(StatFileType fileType) throws SQLException {
+        Map<String, String> loadedEtagsByS3Key = getLoadedEtagsByS3Key(fileType);
+        Map<String, List<String>> loadedS3KeysByFileRef = loadedEtagsByS3Key.keySet().stream()
+                .collect(Collectors.groupingBy(StatReportProcessor::getFileRefForCsvS3Key));
+        Map<String, List<S3ObjectSummary>> csvsByFileRef = getProcessedCsvsInS3(fileType).stream()
+                .collect(Collectors.groupingBy(csv -> StatReportProcessor.getFileRefForCsvS3Key(csv.getKey())));
+
+        Set<String> fileRefs = new TreeSet<>(csvsByFileRef.keySet());
+        fileRefs.addAll(loadedS3KeysByFileRef.keySet());
+
+        List<S3ObjectSummary> csvsToLoad = new ArrayList<>();
+        List<String> changedFileRefs = new ArrayList<>();
+        List<String> changedLoadedS3Keys = new ArrayList<>();
+        newFileCount = 0;
+        changedFileCount = 0;
+        unchangedFileCount = 0;
+
+        for (String fileRef : fileRefs) {
+            List<S3ObjectSummary> csvs = csvsByFileRef.getOrDefault(fileRef, Collections.emptyList());
+            List<String> loadedS3Keys = loadedS3KeysByFileRef.getOrDefault(fileRef, Collections.emptyList());
+
+            if (loadedS3Keys.isEmpty()) {
+                newFileCount++;
+                csvsToLoad.addAll(csvs);
+            } else if (isUnchanged(csvs, loadedS3Keys, loadedEtagsByS3Key)) {
+                unchangedFileCount++;
+            } else {
+                // any part of the report changing means all of its rows are replaced
+                changedFileCount++;
+                changedFileRefs.add(fileRef);
+                changedLoadedS3Keys.addAll(loadedS3Keys);
+                csvsToLoad.addAll(csvs);
+            }
+        }
+
+        LOGGER.info("{} reports: {} new, {} changed, {} unchanged", fileType, newFileCount, changedFileCount, unchangedFileCount);
+
+        if (csvsToLoad.isEmpty() && changedFileRefs.isEmpty())
+            return;
+
+        List<String> manifestS3Keys = uploadManifests(fileType, csvsToLoad);
+        try (Statement statement = redshiftConnection.createStatement()) {
+            statement.execute("begin");
+
+            if (!changedFileRefs.isEmpty()) {
+                statement.execute(String.format("delete from %s where %s in (%s)",
+                        fileType.sqlTableName,
+                        FILE_REF_COLUMN_NAME,
+                        toSqlList(changedFileRefs)));
+
+                statement.execute(String.format("delete from %s where s3_key in (%s)",
+                        REDSHIFT_LOAD_STATUS_TABLE,
+                        toSqlList(changedLoadedS3Keys)));
+            }
+
+            copyManifests(statement, fileType, manifestS3Keys);
+
+            if (!csvsToLoad.isEmpty())
+                statement.execute(generateLoadStatusInsertSql(fileType, csvsToLoad));
+
+            statement.execute("commit");
+        } finally {
+            manifestS3Keys.forEach(manifestS3Key -> s3.deleteObject(HbEtl.S3_BUCKET, manifestS3Key));
+        }
+    }
+
+    /**
+     * Copies every processed csv of the given type into its table, without checking or updating the load status
+     */
+    public void copyAll(StatFileType fileType) throws SQLException {
+        List<String> manifestS3Keys = uploadManifests(fileType, getProcessedCsvsInS3(fileType));
+        try (Statement statement = redshiftConnection.createStatement()) {
+            statement.execute("begin");
+            copyManifests(statement, fileType, manifestS3Keys);
+            statement.execute("commit");
+        } finally {
+            manifestS3Keys.forEach(manifestS3Key -> s3.deleteObject(HbEtl.S3_BUCKET, manifestS3Key));
+        }
+    }
+
+    /**
+     * Forgets every loaded csv of the given type (eg. after its table has been truncated & fully reloaded) & records
+     * the csvs currently in s3 as loaded
+     */
+    public void resetLoadStatus(StatFileType fileType) throws SQLException {
+        createLoadStatusTableIfNotExists();
+
+        List<S3ObjectSummary> csvs = getProcessedCsvsInS3(fileType);
+        try (Statement statement = redshiftConnection.createStatement()) {
+            statement.execute("begin");
+            statement.execute(String.format("delete from %s where table_name = '%s'", REDSHIFT_LOAD_STATUS_TABLE, fileType.sqlTableName));
+
+            if (!csvs.isEmpty()) {
+                statement.execute(generateLoadStatusInsertSql(fileType, csvs));
+            }
+
+            statement.execute("commit");
+        }
+    }
+
+    private void createLoadStatusTableIfNotExists() throws SQLException {
+        try (Statement statement = redshiftConnection.createStatement()) {
+            statement.execute("create table if not exists " + REDSHIFT_LOAD_STATUS_TABLE + " (" +
+                    "s3_key varchar(200) not null," +
+                    "etag varchar(100) not null," +
+                    "table_name varchar(50) not null," +
+                    "date_loaded timestamp not null default getdate()" +
+                ")");
+        }
+    }
+
+    private String generateLoadStatusInsertSql(StatFileType fileType, List<S3ObjectSummary> csvs) {
+        return String.format("insert into %s (s3_key, etag, table_name) values %s",
+                REDSHIFT_LOAD_STATUS_TABLE,
+                csvs.stream()
+                        .map(csv -> String.format("('%s', '%s', '%s')", csv.getKey(), csv.getETag(), fileType.sqlTableName))
+                        .collect(Collectors.joining(", ")));
+    }
+
+    /**
+     * @return s3 key & etag of every csv of the given type currently loaded into its table
+     */
+    public Map<String, String> getLoadedEtagsByS3Key(StatFileType fileType) throws SQLException {
+        createLoadStatusTableIfNotExists();
+
+        try (Statement statement = redshiftConnection.createStatement()) {
+            String sql = String.format("select s3_key, etag from %s where table_name = '%s'", REDSHIFT_LOAD_STATUS_TABLE, fileType.sqlTableName);
+
+            ResultSet result = statement.executeQuery(sql);
+            Map<String, String> etagsByS3Key = new HashMap<>();
+            while (result.next()) {
+                etagsByS3Key.put(result.getString("s3_key"), result.getString("etag"));
+            }
+
+            return etagsByS3Key;
+        }
+    }
+
+    private List<S3ObjectSummary> getProcessedCsvsInS3(StatFileType fileType) {
+        List<S3ObjectSummary> csvs = new ArrayList<>();
+
+        ObjectListing listing = s3.listObjects(HbEtl.S3_BUCKET, StatReportEtl.S3_STAT_REPORT_PROCESSED_PREFIX + "/");
+        while (true) {
+            listing.getObjectSummaries().stream()
+                    .filter(summary -> isCsvForFileType(summary.getKey(), fileType))
+                    .forEach(csvs::add);
+
+            if (!listing.isTruncated())
+                return csvs;
+
+            listing = s3.listNextBatchOfObjects(listing);
+        }
+    }
+
+    /**
+     * Gzipped csvs & uncompressed ones (processed before compression was added) can't be copied together, so they're
+     * listed in separate manifests
+     *
+     * @return s3 keys of the manifests, gzipped manifests end with {@link #GZIP_MANIFEST_SUFFIX}
+     */
+    private List<String> uploadManifests(StatFileType fileType, List<S3ObjectSummary> csvs) {
+        Map<Boolean, List<S3ObjectSummary>> csvsByIsGzipped = csvs.stream()
+                .collect(Collectors.partitioningBy(csv -> isGzipped(csv.getKey())));
+
+        List<String> manifestS3Keys = new ArrayList<>();
+        csvsByIsGzipped.forEach((gzipped, manifestCsvs) -> {
+            if (!manifestCsvs.isEmpty())
+                manifestS3Keys.add(uploadManifest(fileType, manifestCsvs, gzipped ? GZIP_MANIFEST_SUFFIX : MANIFEST_SUFFIX));
+        });
+
+        return manifestS3Keys;
+    }
+
+    private String uploadManifest(StatFileType fileType, List<S3ObjectSummary> csvs, String manifestSuffix) {
+        String manifest = csvs.stream()
+                .map(csv -> String.format("{\"url\":\"s3://%s/%s\",\"mandatory\":true}", HbEtl.S3_BUCKET, csv.getKey()))
+                .collect(Collectors.joining(",", "{\"entries\":[", "]}"));
+        byte[] manifestBytes = manifest.getBytes(StandardCharsets.UTF_8);
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(manifestBytes.length);
+
+        String manifestS3Key = String.format("%s/%s_%d%s", S3_STAT_REPORT_MANIFEST_PREFIX, fileType.sqlTableName, System.currentTimeMillis(), manifestSuffix);
+        s3.putObject(HbEtl.S3_BUCKET, manifestS3Key, new ByteArrayInputStream(manifestBytes), metadata);
+
+        return manifestS3Key;
+    }
+
+    private static void copyManifests(Statement statement, StatFileType fileType, List<String> manifestS3Keys) throws SQLException {
+        for (String manifestS3Key : manifestS3Keys) {
+            statement.execute(String.format("copy %s from 's3://%s/%s' credentials '%s' manifest delimiter '%s'%s",
+                    fileType.sqlTableName,
+                    HbEtl.S3_BUCKET,
+                    manifestS3Key,
+                    HbEtl.REDSHIFT_CREDENTIALS,
+                    StatReportProcessor.CSV_VALUE_DELIMITER,
+                    manifestS3Key.endsWith(GZIP_MANIFEST_SUFFIX) ? " gzip" : ""));
+        }
+    }
+
+    /**
+     * @return true if the report's csvs in s3 are exactly the ones which were loaded
+     */
+    private static boolean isUnchanged(List<S3ObjectSummary> csvs, List<String> loadedS3Keys, Map<String, String> loadedEtagsByS3Key) {
+        return csvs.size() == loadedS3Keys.size()
+                && csvs.stream().allMatch(csv -> csv.getETag().equals(loadedEtagsByS3Key.get(csv.getKey())));
+    }
+
+    private static boolean isGzipped(String s3Key) {
+        return s3Key.endsWith(StatReportProcessor.CSV_GZIP_EXTENSION);
+    }
+
+    private static boolean isCsvForFileType(String s3Key, StatFileType fileType) {
+        if (!s3Key.endsWith(".csv") && !isGzipped(s3Key))
+            return false;
+
+        try {
+            return StatFileType.getFileTypeFromFilename(HbEtl.getFilenameForS3Key(s3Key)) == fileType;
+        } catch (InvalidStatFileException e) {
+            return false;
+        }
+    }
+
+    private static String toSqlList(List<String> values) {
+        return values.stream()
+                .map(value -> "'" + value + "'")
+                .collect(Collectors.joining(", "));
+    }
+}
@@ -1,10 +1,10 @@
 package com.hb.hbetl.statReportEtl;
 
-import com.amazonaws.services.lambda.AWSLambda;
-import com.amazonaws.services.lambda.invoke.LambdaInvokerFactory;
 import com.amazonaws.services.s3.AmazonS3;
 import com.hb.hbetl.HbEtl;
+import com.hb.hbetl.lambdaInvokers.LambdaInvoker;
 import com.hb.hbetl.statReportEtl.lambdas.LoadStatReportLambda;
+import com.hb.hbetl.statReportEtl.lambdas.LoadStatReportResult;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -19,7 +19,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
- * Loads any stat reports not already present in s3
+ * Loads any stat reports not already present in s3 (or with reloadAll, any which have changed on the dob server).
+ * Returns the s3 keys of the reports which were loaded
  */
 public class StatReportLoader implements Callable<List<String>> {
     public static final String XLS_TEMP_FILE_PREFIX = "hbetl_nyc_dob_stat_";
@@ -27,27 +28,36 @@ public class StatReportLoader implements Callable<List<String>> {
 
     private static final Logger LOGGER = LogManager.getLogger(StatReportLoader.class);
 
-    private final AWSLambda lambda;
+    private final LambdaInvoker lambdaInvoker;
     private final AmazonS3 s3;
     private final List<URL> statReportUrls;
     private final AtomicInteger progressCounter;
+    private final AtomicInteger skippedCounter;
 
     private Set<String> statReportsInS3;
     private Map<String, Exception> failuresByFilename;
 
     private boolean reloadAll = false;
 
-    public StatReportLoader(List<URL> statReportUrls, AmazonS3 s3, AWSLambda lambda) {
+    public StatReportLoader(List<URL> statReportUrls, AmazonS3 s3, LambdaInvoker lambdaInvoker) {
         this.statReportUrls = statReportUrls;
         this.s3 = s3;
-        this.lambda = lambda;
+        this.lambdaInvoker = lambdaInvoker;
         this.progressCounter = new AtomicInteger();
+        this.skippedCounter = new AtomicInteger();
     }
 
     public Map<String, Exception> getFailuresByFilename() {
         return failuresByFilename;
     }
 
+    /**
+     * @return number of reports which weren't loaded, because they were already in s3 (& unchanged on the dob server)
+     */
+    public int getSkippedCount() {
+        return skippedCounter.get();
+    }
+
     public StatReportLoader reloadAll(boolean reloadAllFlag) {
         this.reloadAll = reloadAllFlag;
 
@@ -60,20 +70,30 @@ public class StatReportLoader implements Callable<List<String>> {
         statReportsInS3 = StatReportEtl.getStatReportsInS3(s3);
 
         return statReportUrls.parallelStream()
-                .filter(url -> !statReportsInS3.contains(StatReportEtl.getS3KeyForStatReport(url)) || reloadAll)
+                .filter(this::shouldLoadStatReportFile)
                 .map(this::loadStatReportFile)
                 .filter(Objects::nonNull)
                 .collect(Collectors.toList());
     }
 
+    private boolean shouldLoadStatReportFile(URL fileUrl) {
+        if (reloadAll || !statReportsInS3.contains(StatReportEtl.getS3KeyForStatReport(fileUrl)))
+            return true;
+
+        skippedCounter.incrementAndGet();
+        return false;
+    }
+
     // TODO - This could potentially instead return an input streams?
     private String loadStatReportFile(URL fileUrl) {
         String result = null;
         try {
-            result = LambdaInvokerFactory.builder()
-                .lambdaClient(lambda)
-                .build(LoadStatReportLambda.class)
-                .loadStatReport(fileUrl);
+            LoadStatReportResult loadResult = lambdaInvoker.getFunction(LoadStatReportLambda.class).loadStatReport(fileUrl);
+
+            if (loadResult.refreshed)
+                result = loadResult.statReportS3Key;
+            else
+                skippedCounter.incrementAndGet();
         } catch (Exception e) {
             failuresByFilename.put(HbEtl.getFilenameForUrl(fileUrl), e);
         }
@@ -1,8 +1,8 @@
 package com.hb.hbetl.statReportEtl;
 
-import com.amazonaws.services.lambda.AWSLambda;
-import com.amazonaws.services.lambda.invoke.LambdaInvokerFactory;
+import com.amazonaws.AmazonServiceException;
 import com.hb.hbetl.HbEtl;
+import com.hb.hbetl.lambdaInvokers.LambdaInvoker;
 import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
 import com.hb.hbetl.statReportEtl.lambdas.ProcessStatReportLambda;
 import com.hb.hbetl.statReportEtl.lambdas.ProcessStatReportResult;
@@ -14,34 +14,57 @@ import org.apache.poi.ss.usermodel.DateUtil;
 
 import java.io.File;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
  * Processes the newly loaded stat files generating csv data which can then be copied into redshift
+ *
+ * Files are processed concurrently, with at most {@link #setMaxInFlight(int)} lambda invocations running at once.
+ * Results are collected in the same order as the s3 keys they were processed from.
  */
 public class StatReportProcessor implements Callable<List<String>> {
     public static final String CSV_VALUE_DELIMITER = "|";
+    public static final String CSV_GZIP_EXTENSION = ".csv.gz";
     public static final String CSV_TEMP_FILE_DELIMITER = StatReportLoader.XLS_TEMP_FILE_DELIMITER;
     public static final String CSV_TEMP_FILE_PREFIX = StatReportLoader.XLS_TEMP_FILE_PREFIX;
 
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10;
+    public static final int DEFAULT_MAX_ATTEMPTS = 2;
+
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+
     private static final Logger LOGGER = LogManager.getLogger(StatReportProcessor.class);
 
+    private static final ThreadLocal<DecimalFormat> NUMERIC_CELL_FORMAT = ThreadLocal.withInitial(() -> new DecimalFormat("#.#"));
+    private static final double MAX_PLAIN_INTEGER_CELL_VALUE = 1e15;
+
+    // integers can only be written as plain ascii digits if that's what the default locale's format uses too
+    private static final boolean PLAIN_INTEGER_FORMAT_SUPPORTED =
+            new DecimalFormat("#.#").format(-1234567890).equals("-1234567890");
+
     private final List<String> statReportS3Keys;
-    private final AWSLambda lambda;
+    private final LambdaInvoker lambdaInvoker;
     private final AtomicInteger progressCounter;
 
     private Map<String, Exception> failuresByFilename;
     private List<ProcessStatReportResult> results;
 
-    public StatReportProcessor(List<String> statReportS3Keys, AWSLambda lambda) {
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    public StatReportProcessor(List<String> statReportS3Keys, LambdaInvoker lambdaInvoker) {
         this.statReportS3Keys = statReportS3Keys;
-        this.lambda = lambda;
+        this.lambdaInvoker = lambdaInvoker;
         this.progressCounter = new AtomicInteger();
     }
 
@@ -49,6 +72,28 @@ public class StatReportProcessor implements Callable<List<String>> {
         return failuresByFilename;
     }
 
+    public StatReportProcessor setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * @param maxAttempts number of times a file is tried before it's recorded as a failure. Only invocations which
+     *                    lambda rejected (eg. throttling) are retried - once an invocation has been sent the function
+     *                    may still be running even if the call failed or timed out, & a file which it failed to
+     *                    process isn't
+     */
+    public StatReportProcessor setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
     public Integer getParsedRowCount() {
         return results.stream().mapToInt(result -> result.parsedRowCount).sum();
     }
@@ -63,11 +108,22 @@ public class StatReportProcessor implements Callable<List<String>> {
     @Override
     public List<String> call() throws Exception {
         failuresByFilename = new ConcurrentHashMap<>();
+        results = new ArrayList<>();
 
-        results = statReportS3Keys.stream()
-                .map(this::processStatReport)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+        ExecutorService executor = Executors.newFixedThreadPool(maxInFlight);
+        try {
+            List<Future<ProcessStatReportResult>> futureResults = statReportS3Keys.stream()
+                    .map(statReportS3Key -> executor.submit(() -> processStatReport(statReportS3Key)))
+                    .collect(Collectors.toList());
+
+            for (Future<ProcessStatReportResult> futureResult : futureResults) {
+                ProcessStatReportResult result = futureResult.get();
+                if (result != null)
+                    results.add(result);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
 
         return results.stream()
                 .map(result -> result.processedStatReportS3Key)
@@ -77,10 +133,10 @@ public class StatReportProcessor implements Callable<List<String>> {
     public ProcessStatReportResult processStatReport(String statReportS3Key) {
         ProcessStatReportResult result = null;
         try {
-            result = LambdaInvokerFactory.builder()
-                .lambdaClient(lambda)
-                .build(ProcessStatReportLambda.class)
-                .processS3StatReport(statReportS3Key);
+            result = processStatReportWithRetries(statReportS3Key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failuresByFilename.put(HbEtl.getFilenameForS3Key(statReportS3Key), e);
         } catch (Exception e) {
             failuresByFilename.put(HbEtl.getFilenameForS3Key(statReportS3Key), e);
         }
@@ -90,14 +146,59 @@ public class StatReportProcessor implements Callable<List<String>> {
         return result;
     }
 
+    private ProcessStatReportResult processStatReportWithRetries(String statReportS3Key) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return invokeProcessStatReport(statReportS3Key);
+            } catch (AmazonServiceException e) {
+                if (attempt >= maxAttempts)
+                    throw e;
+
+                LOGGER.debug("Retrying {} after failed attempt {}: {}", statReportS3Key, attempt, e.getMessage());
+                Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+            }
+        }
+    }
+
+    private ProcessStatReportResult invokeProcessStatReport(String statReportS3Key) {
+        return lambdaInvoker.getFunction(ProcessStatReportLambda.class).processS3StatReport(statReportS3Key);
+    }
+
     public static String getCsvFilenameForStatReport(File statReport) {
-        String filename = parseOriginalStatReportFilename(statReport);
+        return getCsvFilenameForStatReport(parseOriginalStatReportFilename(statReport));
+    }
 
-        return FilenameUtils.getBaseName(filename) + ".csv";
+    public static String getCsvFilenameForStatReport(String statFileName) {
+        return FilenameUtils.getBaseName(statFileName) + ".csv";
     }
 
     public static String getCsvS3KeyForStatReport(File statReport) {
-        return String.format("%s/%s", StatReportEtl.S3_STAT_REPORT_PROCESSED_PREFIX, getCsvFilenameForStatReport(statReport));
+        return getCsvS3KeyForStatReport(parseOriginalStatReportFilename(statReport));
+    }
+
+    public static String getCsvS3KeyForStatReport(String statFileName) {
+        return String.format("%s/%s", StatReportEtl.S3_STAT_REPORT_PROCESSED_PREFIX, getCsvFilenameForStatReport(statFileName));
+    }
+
+    /**
+     * @return s3 key of one part of the gzipped csv for the report. Single part csvs are stored as eg. job0117.csv.gz,
+     *          split ones as job0117.part00.csv.gz, job0117.part01.csv.gz...
+     */
+    public static String getGzippedCsvPartS3KeyForStatReport(String statFileName, int partIndex, int partCount) {
+        String partSuffix = (partCount == 1) ? "" : String.format(".part%02d", partIndex);
+
+        return String.format("%s/%s%s%s", StatReportEtl.S3_STAT_REPORT_PROCESSED_PREFIX,
+                FilenameUtils.getBaseName(statFileName), partSuffix, CSV_GZIP_EXTENSION);
+    }
+
+    /**
+     * @return the file_ref written into each row of the processed csv (or csv part) with the given key
+     */
+    public static String getFileRefForCsvS3Key(String csvS3Key) {
+        String filename = HbEtl.getFilenameForS3Key(csvS3Key);
+        int extensionStart = filename.indexOf('.');
+
+        return (extensionStart < 0) ? filename : filename.substring(0, extensionStart);
     }
 
     public static String parseOriginalStatReportFilename(File statReport) {
@@ -115,9 +216,9 @@ public class StatReportProcessor implements Callable<List<String>> {
                 return cell.getRichStringCellValue().getString();
             case Cell.CELL_TYPE_NUMERIC:
                 if (DateUtil.isCellDateFormatted(cell))
-                    return String.valueOf(cell.getDateCellValue().getTime());
+                    return formatDateCellData(cell.getDateCellValue());
 
-                return new DecimalFormat("#.#").format(cell.getNumericCellValue());
+                return formatNumericCellData(cell.getNumericCellValue());
             case Cell.CELL_TYPE_BOOLEAN:
                 return String.valueOf(cell.getBooleanCellValue());
             case Cell.CELL_TYPE_BLANK:
@@ -128,4 +229,33 @@ public class StatReportProcessor implements Callable<List<String>> {
                 throw new StatReportCellParseException(cell.getColumnIndex(), "Unknown cell type");
         }
     }
+
+    public static String formatNumericCellData(double value) {
+        if (isPlainIntegerCellValue(value))
+            return Long.toString((long) value);
+
+        return getNumericCellFormat().format(value);
+    }
+
+    /**
+     * @return true if the "#.#" numeric cell format would print the value as a plain integer (so its digits can be
+     *          written directly instead of going through the {@link DecimalFormat})
+     */
+    public static boolean isPlainIntegerCellValue(double value) {
+        return PLAIN_INTEGER_FORMAT_SUPPORTED
+                && Math.abs(value) < MAX_PLAIN_INTEGER_CELL_VALUE
+                && value == Math.rint(value)
+                && !(value == 0 && Double.doubleToRawLongBits(value) != 0); // "#.#" prints -0.0 as "-0"
+    }
+
+    /**
+     * @return the numeric cell format for the current thread ({@link DecimalFormat} isn't thread safe)
+     */
+    public static DecimalFormat getNumericCellFormat() {
+        return NUMERIC_CELL_FORMAT.get();
+    }
+
+    public static String formatDateCellData(Date date) {
+        return String.valueOf(date.getTime());
+    }
 }
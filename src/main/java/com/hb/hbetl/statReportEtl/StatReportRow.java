@@ -0,0 +1,35 @@
+package com.hb.hbetl.statReportEtl;
+
+import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
+
+/**
+ * A row of a stat report whose cells can be read by column index
+ */
+public interface StatReportRow {
+    int MISSING_CELL_TYPE = -1;
+
+    /**
+     * @return 1 + the index of the last column containing a cell (0 if the row is empty)
+     */
+    int getLastCellNum();
+
+    /**
+     * @param columnIndex 0 based column index
+     * @return the poi cell type (eg. {@link org.apache.poi.ss.usermodel.Cell#CELL_TYPE_STRING}) or
+     *          {@link #MISSING_CELL_TYPE} if there's no cell at that column
+     */
+    int getCellType(int columnIndex);
+
+    /**
+     * @param columnIndex 0 based column index
+     * @return the cell data as it should be written to the csv ("" for missing cells)
+     */
+    String getCellData(int columnIndex) throws StatReportCellParseException;
+
+    /**
+     * Writes the same data as {@link #getCellData(int)} into the row buffer, without going through a string where possible
+     */
+    default void appendCellData(int columnIndex, StatReportCsvRowBuffer buffer) throws StatReportCellParseException {
+        buffer.append(getCellData(columnIndex));
+    }
+}
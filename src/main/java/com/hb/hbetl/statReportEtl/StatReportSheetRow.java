@@ -0,0 +1,48 @@
+package com.hb.hbetl.statReportEtl;
+
+import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+
+/**
+ * {@link StatReportRow} backed by a row of a fully loaded {@link org.apache.poi.hssf.usermodel.HSSFSheet}
+ */
+public class StatReportSheetRow implements StatReportRow {
+    private final Row row;
+
+    public StatReportSheetRow(Row row) {
+        this.row = row;
+    }
+
+    @Override
+    public int getLastCellNum() {
+        return Math.max(row.getLastCellNum(), 0);
+    }
+
+    @Override
+    public int getCellType(int columnIndex) {
+        Cell cell = row.getCell(columnIndex);
+        if (cell == null)
+            return MISSING_CELL_TYPE;
+
+        return cell.getCellType();
+    }
+
+    @Override
+    public String getCellData(int columnIndex) throws StatReportCellParseException {
+        return StatReportProcessor.parseCellData(row.getCell(columnIndex));
+    }
+
+    @Override
+    public void appendCellData(int columnIndex, StatReportCsvRowBuffer buffer) throws StatReportCellParseException {
+        Cell cell = row.getCell(columnIndex);
+        if (cell == null || cell.getCellType() != Cell.CELL_TYPE_NUMERIC) {
+            buffer.append(getCellData(columnIndex));
+        } else if (DateUtil.isCellDateFormatted(cell)) {
+            buffer.appendLong(cell.getDateCellValue().getTime());
+        } else {
+            buffer.appendNumeric(cell.getNumericCellValue());
+        }
+    }
+}
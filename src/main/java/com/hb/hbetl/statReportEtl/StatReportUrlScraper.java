@@ -1,6 +1,5 @@
 package com.hb.hbetl.statReportEtl;
 
-import org.joda.time.DateTime;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -12,19 +11,72 @@ import java.net.URL;
 import java.time.Year;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 
 /**
  * Scrapes urls of weekly stat report excel files
+ *
+ * The index page for each year & report type is scraped concurrently (see {@link #setMaxConcurrency(int)}), with at
+ * most {@link #setMaxRequestsPerHost(int)} requests to a host at once & at least
+ * {@link #setHostRequestIntervalMillis(long)} between the start of each. Urls linked from several pages are only
+ * returned once.
  */
 public class StatReportUrlScraper implements Callable<List<URL>> {
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 2;
+    public static final long DEFAULT_HOST_REQUEST_INTERVAL_MILLIS = 250;
+
+    private static final int PAGE_TIMEOUT_MILLIS = 30 * 1000;
+
     private final List<Integer> yearsToScrapeReportsFor;
+    private final Map<String, HostLimit> hostLimits;
     private Collection<Exception> failures;
     private Collection<String> malformedLinks;
 
+    private Set<StatFileType> fileTypes = EnumSet.of(StatFileType.JOB);
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+    private long hostRequestIntervalMillis = DEFAULT_HOST_REQUEST_INTERVAL_MILLIS;
+
     public StatReportUrlScraper(List<Integer> yearsToScrapeReportsFor) {
         this.yearsToScrapeReportsFor = yearsToScrapeReportsFor;
+        this.hostLimits = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param fileTypes types of report to scrape links for, job reports only by default (there's no permit schema to
+     *                  process permit reports with yet)
+     */
+    public StatReportUrlScraper setFileTypes(Collection<StatFileType> fileTypes) {
+        this.fileTypes = EnumSet.copyOf(fileTypes);
+        return this;
+    }
+
+    public StatReportUrlScraper setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+
+        this.maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    public StatReportUrlScraper setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1)
+            throw new IllegalArgumentException("maxRequestsPerHost must be at least 1");
+
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        return this;
+    }
+
+    public StatReportUrlScraper setHostRequestIntervalMillis(long hostRequestIntervalMillis) {
+        this.hostRequestIntervalMillis = hostRequestIntervalMillis;
+        return this;
     }
 
     public Collection<Exception> getFailures() {
@@ -48,14 +100,24 @@ public class StatReportUrlScraper implements Callable<List<URL>> {
         String url = String.format("https://www1.nyc.gov/site/buildings/about/permit-statistical-reports-%d.page", year);
         String linkSelector = "a[href^=/assets/buildings/excel/per][href$=.xls]";
         if (year == Year.now().getValue())
-            url = "http://www1.nyc.gov/site/buildings/about/job-statistical-reports.page";
+            url = "http://www1.nyc.gov/site/buildings/about/permit-statistical-reports.page";
 
         return scrapeLinkUrls(url, linkSelector);
     }
 
+    private List<URL> scrapeStatFileLinksForYear(StatFileType fileType, int year) {
+        switch (fileType) {
+            case PERMIT:
+                return scrapePermitStatFileLinksForYear(year);
+            case JOB:
+            default:
+                return scrapeJobStatFileLinksForYear(year);
+        }
+    }
+
     private List<URL> scrapeLinkUrls(String htmlPageUrl, String linkCssMatcher) {
         try {
-            Document currentStatFilePage = Jsoup.connect(htmlPageUrl).get();
+            Document currentStatFilePage = fetchPage(htmlPageUrl);
             Elements statFileLinks = currentStatFilePage.select(linkCssMatcher);
 
             return statFileLinks.stream()
@@ -64,11 +126,25 @@ public class StatReportUrlScraper implements Callable<List<URL>> {
                 .collect(Collectors.toList());
         } catch (IOException e) {
             this.failures.add(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.failures.add(e);
         }
 
         return Collections.emptyList();
     }
 
+    private Document fetchPage(String htmlPageUrl) throws IOException, InterruptedException {
+        HostLimit hostLimit = hostLimits.computeIfAbsent(new URL(htmlPageUrl).getHost(), host -> new HostLimit(maxRequestsPerHost));
+
+        hostLimit.acquire(hostRequestIntervalMillis);
+        try {
+            return Jsoup.connect(htmlPageUrl).timeout(PAGE_TIMEOUT_MILLIS).get();
+        } finally {
+            hostLimit.release();
+        }
+    }
+
     private URL parseUrlFromElement(Element element) {
         String href = element.absUrl("href");
 
@@ -85,19 +161,61 @@ public class StatReportUrlScraper implements Callable<List<URL>> {
     public List<URL> call() throws Exception {
         failures = new ConcurrentLinkedQueue<>();
         malformedLinks = new ConcurrentLinkedQueue<>();
-        List<URL> statReportUrls = Collections.synchronizedList(new ArrayList<>());
 
-        /*
-        // TODO - Is there any info actually worth scrapping here?
-        yearsToScrapeReportsFor.stream()
-                .map(this::scrapePermitStatFileLinksForYear)
-                .forEach(statReportUrls::addAll);
-        */
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrency);
+        try {
+            List<Future<List<URL>>> futureLinks = new ArrayList<>();
+            for (Integer year : yearsToScrapeReportsFor) {
+                for (StatFileType fileType : fileTypes) {
+                    futureLinks.add(executor.submit(() -> scrapeStatFileLinksForYear(fileType, year)));
+                }
+            }
+
+            // keyed by the url's text, URL.equals() resolves host names
+            Map<String, URL> statReportUrls = new LinkedHashMap<>();
+            for (Future<List<URL>> links : futureLinks) {
+                links.get().forEach(url -> statReportUrls.putIfAbsent(url.toExternalForm(), url));
+            }
+
+            return new ArrayList<>(statReportUrls.values());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-        yearsToScrapeReportsFor.stream() // TODO - shall we parrallelize?
-                .map(this::scrapeJobStatFileLinksForYear)
-                .forEach(statReportUrls::addAll);
+    /**
+     * Limits the concurrent requests to a host & spaces out the start of each
+     */
+    private static class HostLimit {
+        private final Semaphore concurrentRequests;
+        private long nextRequestMillis;
+
+        HostLimit(int maxConcurrentRequests) {
+            this.concurrentRequests = new Semaphore(maxConcurrentRequests, true);
+        }
 
-        return statReportUrls;
+        void acquire(long requestIntervalMillis) throws InterruptedException {
+            concurrentRequests.acquire();
+
+            long waitMillis;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                long requestMillis = Math.max(now, nextRequestMillis);
+                nextRequestMillis = requestMillis + requestIntervalMillis;
+                waitMillis = requestMillis - now;
+            }
+
+            try {
+                if (waitMillis > 0)
+                    Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                concurrentRequests.release();
+                throw e;
+            }
+        }
+
+        void release() {
+            concurrentRequests.release();
+        }
     }
 }
@@ -0,0 +1,308 @@
+package com.hb.hbetl.statReportEtl;
+
+import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.record.*;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Reads the first sheet of an xls stat report using POI's event model rather than building a full
+ * {@link org.apache.poi.hssf.usermodel.HSSFWorkbook}. Each row is handed to the {@link RowHandler} as soon as its
+ * last cell has been decoded, so only the current row (plus the workbook's shared string table) is held in memory.
+ *
+ * Rows are reported the same way iterating a {@link org.apache.poi.hssf.usermodel.HSSFSheet} reports them (in order,
+ * skipping rows which don't exist in the file) and cell data matches {@link StatReportProcessor#parseCellData(Cell)}.
+ */
+public class StatReportXlsStreamReader extends AbortableHSSFListener {
+    private static final short CONTINUE_READING = 0;
+    private static final short STOP_READING = 1;
+
+    public interface RowHandler {
+        void handleRow(StreamedRow row) throws IOException;
+    }
+
+    private final RowHandler rowHandler;
+    private final FormatTrackingHSSFListener formatTracker;
+    private final TreeSet<Integer> pendingRowIndexes;
+    private final StreamedRow currentRow;
+
+    private SSTRecord sharedStrings;
+    private boolean use1904DateWindowing;
+    private int bofDepth;
+    private int worksheetCount;
+    private boolean inFirstWorksheet;
+
+    private StatReportXlsStreamReader(RowHandler rowHandler) {
+        this.rowHandler = rowHandler;
+        this.formatTracker = new FormatTrackingHSSFListener(null);
+        this.pendingRowIndexes = new TreeSet<>();
+        this.currentRow = new StreamedRow();
+    }
+
+    public static void readFirstSheet(NPOIFSFileSystem poiFileSystem, RowHandler rowHandler) throws IOException {
+        StatReportXlsStreamReader reader = new StatReportXlsStreamReader(rowHandler);
+
+        HSSFRequest request = new HSSFRequest();
+        request.addListenerForAllRecords(reader);
+
+        try {
+            new HSSFEventFactory().abortableProcessWorkbookEvents(request, poiFileSystem.getRoot());
+            reader.finishSheet();
+        } catch (HSSFUserException e) {
+            if (e.getReason() instanceof IOException)
+                throw (IOException) e.getReason();
+
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public short abortableProcessRecord(Record record) throws HSSFUserException {
+        formatTracker.processRecordInternally(record);
+
+        try {
+            switch (record.getSid()) {
+                case BOFRecord.sid:
+                    bofDepth++;
+                    if (bofDepth == 1 && ((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET)
+                        inFirstWorksheet = worksheetCount++ == 0;
+                    break;
+                case EOFRecord.sid:
+                    bofDepth--;
+                    if (bofDepth == 0 && inFirstWorksheet) {
+                        finishSheet();
+                        return STOP_READING;
+                    }
+                    break;
+                case SSTRecord.sid:
+                    sharedStrings = (SSTRecord) record;
+                    break;
+                case DateWindow1904Record.sid:
+                    use1904DateWindowing = ((DateWindow1904Record) record).getWindowing() == 1;
+                    break;
+                default:
+                    if (inFirstWorksheet && bofDepth == 1)
+                        processSheetRecord(record);
+                    break;
+            }
+        } catch (IOException e) {
+            throw new HSSFUserException(e.getMessage(), e);
+        }
+
+        return CONTINUE_READING;
+    }
+
+    private void processSheetRecord(Record record) throws IOException {
+        switch (record.getSid()) {
+            case RowRecord.sid:
+                pendingRowIndexes.add(((RowRecord) record).getRowNumber());
+                break;
+            case LabelSSTRecord.sid:
+                LabelSSTRecord labelSST = (LabelSSTRecord) record;
+                setCell(labelSST, Cell.CELL_TYPE_STRING, sharedStrings.getString(labelSST.getSSTIndex()).getString());
+                break;
+            case LabelRecord.sid:
+                LabelRecord label = (LabelRecord) record;
+                setCell(label, Cell.CELL_TYPE_STRING, label.getValue());
+                break;
+            case NumberRecord.sid:
+                setNumericCell((NumberRecord) record);
+                break;
+            case BoolErrRecord.sid:
+                BoolErrRecord boolErr = (BoolErrRecord) record;
+                if (boolErr.isBoolean())
+                    setCell(boolErr, Cell.CELL_TYPE_BOOLEAN, String.valueOf(boolErr.getBooleanValue()));
+                else
+                    setCellError(boolErr, Cell.CELL_TYPE_ERROR, "Unknown cell type");
+                break;
+            case BlankRecord.sid:
+                setCell((BlankRecord) record, Cell.CELL_TYPE_BLANK, "");
+                break;
+            case MulBlankRecord.sid:
+                MulBlankRecord mulBlank = (MulBlankRecord) record;
+                startRow(mulBlank.getRow());
+                for (int col = mulBlank.getFirstColumn(); col <= mulBlank.getLastColumn(); col++) {
+                    currentRow.setCell(col, Cell.CELL_TYPE_BLANK, "", null);
+                }
+                break;
+            case FormulaRecord.sid:
+                setCellError((FormulaRecord) record, Cell.CELL_TYPE_FORMULA, "Unable to parse formula");
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void setNumericCell(NumberRecord number) throws IOException {
+        startRow(number.getRow());
+        double value = number.getValue();
+
+        // Same check as DateUtil.isCellDateFormatted(), using the tracked formats rather than a cell style
+        if (DateUtil.isValidExcelDate(value)) {
+            int formatIndex = formatTracker.getFormatIndex(number);
+            if (DateUtil.isADateFormat(formatIndex, formatTracker.getFormatString(formatIndex))) {
+                currentRow.setDateCell(number.getColumn(), DateUtil.getJavaDate(value, use1904DateWindowing).getTime());
+                return;
+            }
+        }
+
+        currentRow.setNumericCell(number.getColumn(), value);
+    }
+
+    private void setCell(CellValueRecordInterface cell, int cellType, String cellData) throws IOException {
+        startRow(cell.getRow());
+        currentRow.setCell(cell.getColumn(), cellType, cellData, null);
+    }
+
+    private void setCellError(CellValueRecordInterface cell, int cellType, String parseError) throws IOException {
+        startRow(cell.getRow());
+        currentRow.setCell(cell.getColumn(), cellType, null, parseError);
+    }
+
+    /**
+     * Cell records arrive ordered by row, so once a cell for a new row shows up the current row is complete. Any
+     * rows declared by a {@link RowRecord} in between have no cells but still exist, and are reported as empty rows.
+     */
+    private void startRow(int rowIndex) throws IOException {
+        if (currentRow.rowIndex == rowIndex)
+            return;
+
+        if (currentRow.rowIndex >= 0)
+            rowHandler.handleRow(currentRow);
+
+        while (!pendingRowIndexes.isEmpty() && pendingRowIndexes.first() < rowIndex) {
+            currentRow.reset(pendingRowIndexes.pollFirst());
+            rowHandler.handleRow(currentRow);
+        }
+
+        pendingRowIndexes.remove(rowIndex);
+        currentRow.reset(rowIndex);
+    }
+
+    private void finishSheet() throws IOException {
+        if (currentRow.rowIndex >= 0)
+            rowHandler.handleRow(currentRow);
+
+        while (!pendingRowIndexes.isEmpty()) {
+            currentRow.reset(pendingRowIndexes.pollFirst());
+            rowHandler.handleRow(currentRow);
+        }
+
+        currentRow.reset(-1);
+    }
+
+    /**
+     * The row currently being read. It is reused for every row, so it's only valid during {@link RowHandler#handleRow}
+     */
+    public static class StreamedRow implements StatReportRow {
+        private int rowIndex = -1;
+        private int lastCellNum = 0;
+        private int[] cellTypes = new int[0];
+        private String[] cellData = new String[0];
+        private String[] parseErrors = new String[0];
+
+        // numeric cells are kept as numbers (date cells as epoch millis) until they're written
+        private double[] numericValues = new double[0];
+        private boolean[] isDate = new boolean[0];
+
+        /**
+         * @return 0 based index of this row in the sheet
+         */
+        public int getRowIndex() {
+            return rowIndex;
+        }
+
+        @Override
+        public int getLastCellNum() {
+            return lastCellNum;
+        }
+
+        @Override
+        public int getCellType(int columnIndex) {
+            if (columnIndex >= lastCellNum)
+                return MISSING_CELL_TYPE;
+
+            return cellTypes[columnIndex];
+        }
+
+        @Override
+        public String getCellData(int columnIndex) throws StatReportCellParseException {
+            switch (getCellType(columnIndex)) {
+                case MISSING_CELL_TYPE:
+                    return "";
+                case Cell.CELL_TYPE_NUMERIC:
+                    if (isDate[columnIndex])
+                        return Long.toString((long) numericValues[columnIndex]);
+
+                    return StatReportProcessor.formatNumericCellData(numericValues[columnIndex]);
+                default:
+                    if (parseErrors[columnIndex] != null)
+                        throw new StatReportCellParseException(columnIndex, parseErrors[columnIndex]);
+
+                    return cellData[columnIndex];
+            }
+        }
+
+        @Override
+        public void appendCellData(int columnIndex, StatReportCsvRowBuffer buffer) throws StatReportCellParseException {
+            if (getCellType(columnIndex) != Cell.CELL_TYPE_NUMERIC) {
+                buffer.append(getCellData(columnIndex));
+            } else if (isDate[columnIndex]) {
+                buffer.appendLong((long) numericValues[columnIndex]);
+            } else {
+                buffer.appendNumeric(numericValues[columnIndex]);
+            }
+        }
+
+        private void setCell(int columnIndex, int cellType, String data, String parseError) {
+            prepareCell(columnIndex, cellType);
+            cellData[columnIndex] = data;
+            parseErrors[columnIndex] = parseError;
+        }
+
+        private void setNumericCell(int columnIndex, double value) {
+            prepareCell(columnIndex, Cell.CELL_TYPE_NUMERIC);
+            numericValues[columnIndex] = value;
+            isDate[columnIndex] = false;
+        }
+
+        private void setDateCell(int columnIndex, long epochMillis) {
+            prepareCell(columnIndex, Cell.CELL_TYPE_NUMERIC);
+            numericValues[columnIndex] = epochMillis;
+            isDate[columnIndex] = true;
+        }
+
+        private void prepareCell(int columnIndex, int cellType) {
+            if (columnIndex >= cellTypes.length) {
+                int capacity = Math.max(columnIndex + 1, cellTypes.length * 2);
+                cellTypes = Arrays.copyOf(cellTypes, capacity);
+                cellData = Arrays.copyOf(cellData, capacity);
+                parseErrors = Arrays.copyOf(parseErrors, capacity);
+                numericValues = Arrays.copyOf(numericValues, capacity);
+                isDate = Arrays.copyOf(isDate, capacity);
+            }
+
+            for (int col = lastCellNum; col < columnIndex; col++) {
+                cellTypes[col] = MISSING_CELL_TYPE;
+            }
+
+            cellTypes[columnIndex] = cellType;
+            lastCellNum = Math.max(lastCellNum, columnIndex + 1);
+        }
+
+        private void reset(int rowIndex) {
+            this.rowIndex = rowIndex;
+            this.lastCellNum = 0;
+        }
+    }
+}
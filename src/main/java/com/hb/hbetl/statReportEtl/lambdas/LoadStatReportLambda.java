@@ -8,6 +8,9 @@ import java.net.URL;
  * AWS lambda function for loading a stat report
  */
 public interface LoadStatReportLambda {
+    /**
+     * Loads the stat report into s3, unless the copy already in s3 is up to date with the one on the dob server
+     */
     @LambdaFunction(functionName = "nyc_dob_load_stat_report")
-    String loadStatReport(URL fileUrl);
+    LoadStatReportResult loadStatReport(URL fileUrl);
 }
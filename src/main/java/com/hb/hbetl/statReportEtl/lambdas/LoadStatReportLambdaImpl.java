@@ -3,45 +3,136 @@ package com.hb.hbetl.statReportEtl.lambdas;
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import org.apache.commons.io.FileUtils;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.hb.hbetl.s3.S3StreamUploader;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.Objects;
 
 import static com.hb.hbetl.HbEtl.S3_BUCKET;
-import static com.hb.hbetl.HbEtl.getFilenameForUrl;
 import static com.hb.hbetl.statReportEtl.StatReportEtl.getS3KeyForStatReport;
-import static com.hb.hbetl.statReportEtl.StatReportLoader.XLS_TEMP_FILE_DELIMITER;
-import static com.hb.hbetl.statReportEtl.StatReportLoader.XLS_TEMP_FILE_PREFIX;
 
 /**
  * Implementation of {@link LoadStatReportLambda}
+ *
+ * The ETag, Last-Modified & Content-Length the dob server sent with each report are stored in the s3 object's user
+ * metadata, and sent back with the next request for it (as If-None-Match & If-Modified-Since) so unchanged reports
+ * aren't downloaded again.
  */
 public class LoadStatReportLambdaImpl implements LoadStatReportLambda {
+    public static final String SOURCE_ETAG_METADATA = "source-etag";
+    public static final String SOURCE_LAST_MODIFIED_METADATA = "source-last-modified";
+    public static final String SOURCE_CONTENT_LENGTH_METADATA = "source-content-length";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 30 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 2 * 60 * 1000;
+
     private final AmazonS3 s3;
+    private final S3StreamUploader s3Uploader;
 
     public LoadStatReportLambdaImpl() {
-        this.s3 = AmazonS3ClientBuilder.defaultClient();
+        this(AmazonS3ClientBuilder.defaultClient());
+    }
+
+    public LoadStatReportLambdaImpl(AmazonS3 s3) {
+        this.s3 = s3;
+        this.s3Uploader = new S3StreamUploader(s3);
     }
 
     @Override
-    public String loadStatReport(URL fileUrl) {
+    public LoadStatReportResult loadStatReport(URL fileUrl) {
         try {
             String s3Key = getS3KeyForStatReport(fileUrl);
+            ObjectMetadata loadedMetadata = getLoadedMetadata(s3Key);
 
-            // create temp file in local file system
-            File statReportFile = File.createTempFile(XLS_TEMP_FILE_PREFIX, XLS_TEMP_FILE_DELIMITER + getFilenameForUrl(fileUrl));
+            URLConnection connection = openConditionalConnection(fileUrl, loadedMetadata);
+            try {
+                if (isUnchanged(connection, loadedMetadata))
+                    return new LoadStatReportResult(s3Key, false);
 
-            // load the file into temp file
-            FileUtils.copyURLToFile(fileUrl, statReportFile);
+                // stream the report straight into s3, along with the source's validators
+                ObjectMetadata metadata = new ObjectMetadata();
+                putSourceMetadata(metadata, SOURCE_ETAG_METADATA, connection.getHeaderField("ETag"));
+                putSourceMetadata(metadata, SOURCE_LAST_MODIFIED_METADATA, connection.getHeaderField("Last-Modified"));
+                putSourceMetadata(metadata, SOURCE_CONTENT_LENGTH_METADATA, connection.getHeaderField("Content-Length"));
 
-            // upload a copy of the file to s3
-            s3.putObject(S3_BUCKET, s3Key, statReportFile);
+                try (InputStream statReportInput = connection.getInputStream()) {
+                    s3Uploader.upload(statReportInput, connection.getContentLengthLong(), S3_BUCKET, s3Key, metadata);
+                }
 
-            return s3Key;
+                return new LoadStatReportResult(s3Key, true);
+            } finally {
+                if (connection instanceof HttpURLConnection)
+                    ((HttpURLConnection) connection).disconnect();
+            }
         } catch (AmazonClientException | IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * @return metadata of the copy of the report already in s3, or null if there isn't one
+     */
+    private ObjectMetadata getLoadedMetadata(String s3Key) {
+        try {
+            return s3.getObjectMetadata(S3_BUCKET, s3Key);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404)
+                return null;
+
+            throw e;
+        }
+    }
+
+    private static URLConnection openConditionalConnection(URL fileUrl, ObjectMetadata loadedMetadata) throws IOException {
+        URLConnection connection = fileUrl.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+
+        if (loadedMetadata != null) {
+            String etag = loadedMetadata.getUserMetaDataOf(SOURCE_ETAG_METADATA);
+            String lastModified = loadedMetadata.getUserMetaDataOf(SOURCE_LAST_MODIFIED_METADATA);
+
+            if (etag != null)
+                connection.setRequestProperty("If-None-Match", etag);
+            if (lastModified != null)
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+
+        return connection;
+    }
+
+    /**
+     * @return true if the server says the report hasn't been modified, or (for servers which ignore conditional
+     *          requests) it responds with the same validators as the loaded copy
+     */
+    private static boolean isUnchanged(URLConnection connection, ObjectMetadata loadedMetadata) throws IOException {
+        if (loadedMetadata == null)
+            return false;
+
+        if (connection instanceof HttpURLConnection
+                && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+            return true;
+
+        String etag = connection.getHeaderField("ETag");
+        if (etag != null)
+            return etag.equals(loadedMetadata.getUserMetaDataOf(SOURCE_ETAG_METADATA));
+
+        String lastModified = connection.getHeaderField("Last-Modified");
+        String contentLength = connection.getHeaderField("Content-Length");
+
+        return lastModified != null
+                && lastModified.equals(loadedMetadata.getUserMetaDataOf(SOURCE_LAST_MODIFIED_METADATA))
+                && Objects.equals(contentLength, loadedMetadata.getUserMetaDataOf(SOURCE_CONTENT_LENGTH_METADATA));
+    }
+
+    private static void putSourceMetadata(ObjectMetadata metadata, String key, String value) {
+        if (value != null)
+            metadata.addUserMetadata(key, value);
+    }
 }
@@ -0,0 +1,16 @@
+package com.hb.hbetl.statReportEtl.lambdas;
+
+public class LoadStatReportResult {
+    public String statReportS3Key;
+    public Boolean refreshed;
+
+    public LoadStatReportResult() {}
+
+    /**
+     * @param refreshed false if the report was unchanged on the dob server, so the copy in s3 was left as is
+     */
+    public LoadStatReportResult(String statReportS3Key, Boolean refreshed) {
+        this.statReportS3Key = statReportS3Key;
+        this.refreshed = refreshed;
+    }
+}
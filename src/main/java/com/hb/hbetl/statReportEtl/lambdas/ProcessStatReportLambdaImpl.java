@@ -2,30 +2,40 @@ package com.hb.hbetl.statReportEtl.lambdas;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.hb.hbetl.HbEtl;
-import com.hb.hbetl.statReportEtl.StatFileColumnSchema;
 import com.hb.hbetl.statReportEtl.StatFileSchema;
 import com.hb.hbetl.statReportEtl.StatFileType;
+import com.hb.hbetl.statReportEtl.StatReportCsvWriter;
+import com.hb.hbetl.statReportEtl.StatReportEtl;
 import com.hb.hbetl.statReportEtl.StatReportLoader;
+import com.hb.hbetl.statReportEtl.StatReportRow;
+import com.hb.hbetl.statReportEtl.StatReportSheetRow;
+import com.hb.hbetl.statReportEtl.StatReportXlsStreamReader;
+import com.hb.hbetl.statReportEtl.exceptions.InvalidStatSchemaException;
 import com.hb.hbetl.statReportEtl.exceptions.StatFileProcessingException;
 import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
 import com.hb.hbetl.statReportEtl.exceptions.StatReportRowParseException;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
-import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import static com.hb.hbetl.statReportEtl.StatReportProcessor.*;
 
@@ -33,57 +43,152 @@ import static com.hb.hbetl.statReportEtl.StatReportProcessor.*;
  * Implementation of {@link ProcessStatReportLambda}
  */
 public class ProcessStatReportLambdaImpl implements ProcessStatReportLambda {
+    public static final String XLS_READ_MODE_ENV_VARIABLE = "CFG_STAT_REPORT_XLS_READ_MODE";
+    public static final String IN_MEMORY_MAX_BYTES_ENV_VARIABLE = "CFG_STAT_REPORT_IN_MEMORY_MAX_BYTES";
+    public static final String CSV_PART_COUNT_ENV_VARIABLE = "CFG_STAT_REPORT_CSV_PARTS";
+
+    /** Reports up to this size are read straight from s3 into memory, larger ones are spooled to a temp file */
+    public static final long DEFAULT_IN_MEMORY_MAX_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * How stat report xls files are read when converting them to csv. Both modes produce identical csv output
+     */
+    public enum XlsReadMode {
+        /** Loads the whole workbook into memory as an {@link HSSFWorkbook} */
+        DOM,
+        /** Streams the rows with {@link StatReportXlsStreamReader}, memory use doesn't depend on the size of the sheet */
+        STREAMING
+    }
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Rows parsed & failed while processing a single report
+     */
+    private static class RowTally {
+        int parsedRowCount;
+        final List<StatReportRowParseException> parsingFailures = new ArrayList<>();
+    }
+
     private final AmazonS3 s3;
-    private final AtomicInteger parsedRowCount;
-    private final List<StatReportRowParseException> parsingFailures;
+    private final XlsReadMode xlsReadMode;
+    private final long inMemoryMaxBytes;
+    private final int csvPartCount;
 
     public ProcessStatReportLambdaImpl() {
-        this.s3 = AmazonS3ClientBuilder.defaultClient();
-        this.parsedRowCount = new AtomicInteger();
-        this.parsingFailures = new ArrayList<>();
+        this(getXlsReadModeFromEnv());
+    }
+
+    public ProcessStatReportLambdaImpl(XlsReadMode xlsReadMode) {
+        this(AmazonS3ClientBuilder.defaultClient(), xlsReadMode);
+    }
+
+    public ProcessStatReportLambdaImpl(AmazonS3 s3, XlsReadMode xlsReadMode) {
+        this.s3 = s3;
+        this.xlsReadMode = xlsReadMode;
+        this.inMemoryMaxBytes = getInMemoryMaxBytesFromEnv();
+        this.csvPartCount = getCsvPartCountFromEnv();
     }
 
     @Override
     public ProcessStatReportResult processS3StatReport(String statReportXlsS3Key) {
-        try {
-            File statFile = loadFileFromS3(statReportXlsS3Key);
-            String csvS3Key = processXlsStatReport(statFile);
+        String statFileName = HbEtl.getFilenameForS3Key(statReportXlsS3Key);
 
-            return new ProcessStatReportResult(csvS3Key, parsedRowCount.intValue(), parsingFailures);
+        try (NPOIFSFileSystem poiFileSystem = openXlsFromS3(statReportXlsS3Key)) {
+            // counted per report, as a warm container (or local lambda thread) reuses this instance
+            RowTally rowTally = new RowTally();
+            String csvS3Key = processXlsStatReport(poiFileSystem, statFileName, rowTally);
+
+            return new ProcessStatReportResult(csvS3Key, rowTally.parsedRowCount, rowTally.parsingFailures);
         } catch (IOException e) {
-            throw new StatFileProcessingException(HbEtl.getFilenameForS3Key(statReportXlsS3Key), e);
+            throw new StatFileProcessingException(statFileName, e);
         }
     }
 
     public String processXlsStatReport(File statReport) throws IOException {
-        String csvFilename = getCsvFilenameForStatReport(statReport);
-        String csvS3Key = getCsvS3KeyForStatReport(statReport);
+        try (NPOIFSFileSystem poiFileSystem = new NPOIFSFileSystem(statReport)) {
+            return processXlsStatReport(poiFileSystem, parseOriginalStatReportFilename(statReport), new RowTally());
+        }
+    }
 
-        // Convert xls stat report to a csv
-        File csvFile = File.createTempFile(CSV_TEMP_FILE_PREFIX, CSV_TEMP_FILE_DELIMITER + csvFilename);
-        convertXlsStatFileToCsv(statReport, csvFile);
+    /**
+     * @return s3 key of the (first part of the) gzipped csv
+     */
+    private String processXlsStatReport(NPOIFSFileSystem poiFileSystem, String statFileName, RowTally rowTally) throws IOException {
+        String csvFilename = getCsvFilenameForStatReport(statFileName);
+        List<String> csvPartS3Keys = new ArrayList<>(csvPartCount);
+        List<File> csvPartFiles = new ArrayList<>(csvPartCount);
 
-        // Put csv into s3
-        s3.putObject(HbEtl.S3_BUCKET, csvS3Key, csvFile);
+        try {
+            for (int partIndex = 0; partIndex < csvPartCount; partIndex++) {
+                csvPartS3Keys.add(getGzippedCsvPartS3KeyForStatReport(statFileName, partIndex, csvPartCount));
+                csvPartFiles.add(File.createTempFile(CSV_TEMP_FILE_PREFIX, CSV_TEMP_FILE_DELIMITER + partIndex + "_" + csvFilename + ".gz"));
+            }
+
+            // Convert xls stat report to a gzipped csv
+            convertXlsStatFileToCsv(poiFileSystem, statFileName, csvPartFiles, rowTally);
+
+            // Put csv into s3
+            for (int partIndex = 0; partIndex < csvPartCount; partIndex++) {
+                s3.putObject(HbEtl.S3_BUCKET, csvPartS3Keys.get(partIndex), csvPartFiles.get(partIndex));
+            }
+        } finally {
+            csvPartFiles.forEach(FileUtils::deleteQuietly);
+        }
+
+        deleteStaleCsvs(statFileName, csvPartS3Keys);
 
-        return csvS3Key;
+        return csvPartS3Keys.get(0);
     }
 
-    private void convertXlsStatFileToCsv(File statReportXls, File outputCsv) throws IOException {
-        String statFileName = parseOriginalStatReportFilename(statReportXls);
+    /**
+     * Deletes any other processed csvs for the report, eg. parts left over from a run with a higher part count or an
+     * uncompressed csv from before compression was added
+     */
+    private void deleteStaleCsvs(String statFileName, List<String> csvPartS3Keys) {
+        String csvPrefix = String.format("%s/%s.", StatReportEtl.S3_STAT_REPORT_PROCESSED_PREFIX, FilenameUtils.getBaseName(statFileName));
+
+        ObjectListing listing = s3.listObjects(HbEtl.S3_BUCKET, csvPrefix);
+        while (true) {
+            listing.getObjectSummaries().stream()
+                    .map(S3ObjectSummary::getKey)
+                    .filter(s3Key -> !csvPartS3Keys.contains(s3Key))
+                    .forEach(s3Key -> s3.deleteObject(HbEtl.S3_BUCKET, s3Key));
+
+            if (!listing.isTruncated())
+                return;
+
+            listing = s3.listNextBatchOfObjects(listing);
+        }
+    }
+
+    private void convertXlsStatFileToCsv(NPOIFSFileSystem poiFileSystem, String statFileName, List<File> csvPartFiles, RowTally rowTally)
+            throws IOException {
+
+        switch (xlsReadMode) {
+            case STREAMING:
+                streamXlsStatFileToCsv(poiFileSystem, statFileName, csvPartFiles, rowTally);
+                break;
+            case DOM:
+            default:
+                loadXlsStatFileToCsv(poiFileSystem, statFileName, csvPartFiles, rowTally);
+                break;
+        }
+    }
+
+    private void loadXlsStatFileToCsv(NPOIFSFileSystem poiFileSystem, String statFileName, List<File> csvPartFiles, RowTally rowTally)
+            throws IOException {
+
         StatFileType fileType = StatFileType.getFileTypeFromFilename(statFileName);
         StatFileSchema statFileSchema = StatFileSchema.getSchemaForFileType(fileType);
 
-        try (
-            NPOIFSFileSystem poiFileSystem = new NPOIFSFileSystem(statReportXls);
-            PrintWriter csvOutput = new PrintWriter(outputCsv)
-        ) {
+        try (StatReportCsvWriter csvOutput = openGzippedCsvWriter(csvPartFiles, statFileSchema, statFileName)) {
             HSSFWorkbook workbook = new HSSFWorkbook(poiFileSystem.getRoot(), false);
             HSSFSheet sheet = workbook.getSheetAt(0);
-            statFileSchema.validateSchema(sheet, statFileName);
+            StatReportSheetRow headerRow = new StatReportSheetRow(sheet.getRow(fileType.headerRowNum - 1));
+            StatFileSchema.validateSchemaForFileType(fileType, headerRow, statFileName);
 
             int rowNum = 0;
-            List<StatFileColumnSchema> columnSchemas = statFileSchema.getColumnSchemas();
             for (Row row : sheet) {
                 rowNum++; // xls rows start at 1
 
@@ -91,52 +196,114 @@ public class ProcessStatReportLambdaImpl implements ProcessStatReportLambda {
                 if (rowNum <= fileType.headerRowNum)
                     continue;
 
-                try {
-                    String csvRow = generateCsvRow(row, columnSchemas, statFileName);
-                    csvOutput.print(csvRow);
-                    parsedRowCount.incrementAndGet();
-                } catch (StatReportCellParseException e) {
-                    parsingFailures.add(new StatReportRowParseException(statFileName, rowNum, e));
-                }
+                writeCsvRow(new StatReportSheetRow(row), rowNum, statFileName, csvOutput, rowTally);
             }
         }
     }
 
-    private String generateCsvRow(Row row, List<StatFileColumnSchema> columnSchemas, String statFileName)
-            throws StatReportCellParseException {
+    private void streamXlsStatFileToCsv(NPOIFSFileSystem poiFileSystem, String statFileName, List<File> csvPartFiles, RowTally rowTally)
+            throws IOException {
+
+        StatFileType fileType = StatFileType.getFileTypeFromFilename(statFileName);
+        StatFileSchema statFileSchema = StatFileSchema.getSchemaForFileType(fileType);
+
+        int headerRowIndex = fileType.headerRowNum - 1;
+        AtomicInteger rowNum = new AtomicInteger();
+        AtomicBoolean schemaValidated = new AtomicBoolean();
+
+        try (StatReportCsvWriter csvOutput = openGzippedCsvWriter(csvPartFiles, statFileSchema, statFileName)) {
+            StatReportXlsStreamReader.readFirstSheet(poiFileSystem, row -> {
+                // The header row always comes before any data rows, so it can be validated as soon as it's read
+                if (row.getRowIndex() == headerRowIndex) {
+                    StatFileSchema.validateSchemaForFileType(fileType, row, statFileName);
+                    schemaValidated.set(true);
+                } else if (row.getRowIndex() > headerRowIndex && !schemaValidated.get()) {
+                    throw new InvalidStatSchemaException(statFileName);
+                }
+
+                // Skip header row
+                if (rowNum.incrementAndGet() <= fileType.headerRowNum)
+                    return;
+
+                writeCsvRow(row, rowNum.get(), statFileName, csvOutput, rowTally);
+            });
+        }
+
+        if (!schemaValidated.get())
+            throw new InvalidStatSchemaException(statFileName);
+    }
 
-        StringBuilder csvRow = new StringBuilder();
-        int colNum = 0;
+    private static StatReportCsvWriter openGzippedCsvWriter(List<File> csvPartFiles, StatFileSchema statFileSchema, String statFileName)
+            throws IOException {
 
-        // Parse cell data and write it to the csv output
-        for (StatFileColumnSchema columnSchema : columnSchemas) {
-            Cell cell = row.getCell(colNum);
+        List<OutputStream> csvPartOutputs = new ArrayList<>(csvPartFiles.size());
+        try {
+            for (File csvPartFile : csvPartFiles) {
+                csvPartOutputs.add(new GZIPOutputStream(new FileOutputStream(csvPartFile), GZIP_BUFFER_SIZE));
+            }
+        } catch (IOException e) {
+            csvPartOutputs.forEach(IOUtils::closeQuietly);
+            throw e;
+        }
 
-            String cellData = parseCellData(cell);
-            columnSchema.validateCellSchema(cellData, colNum);
+        return new StatReportCsvWriter(csvPartOutputs, statFileSchema.getColumnSchemas(), statFileName);
+    }
 
-            csvRow.append(cellData);
-            csvRow.append(CSV_VALUE_DELIMITER);
+    private void writeCsvRow(StatReportRow row, int rowNum, String statFileName, StatReportCsvWriter csvOutput, RowTally rowTally)
+            throws IOException {
 
-            colNum++;
+        try {
+            csvOutput.writeRow(row);
+            rowTally.parsedRowCount++;
+        } catch (StatReportCellParseException e) {
+            rowTally.parsingFailures.add(new StatReportRowParseException(statFileName, rowNum, e));
         }
+    }
 
-        // Last column is the statFileName
-        csvRow.append(FilenameUtils.getBaseName(statFileName));
-        csvRow.append('\n');
+    public static XlsReadMode getXlsReadModeFromEnv() {
+        String xlsReadMode = System.getenv(XLS_READ_MODE_ENV_VARIABLE);
+        if (xlsReadMode == null || xlsReadMode.isEmpty())
+            return XlsReadMode.STREAMING;
 
-        return csvRow.toString();
+        return XlsReadMode.valueOf(xlsReadMode.toUpperCase());
     }
 
-    private File loadFileFromS3(String s3Key) throws IOException {
+    private static int getCsvPartCountFromEnv() {
+        String csvPartCount = System.getenv(CSV_PART_COUNT_ENV_VARIABLE);
+        if (csvPartCount == null || csvPartCount.isEmpty())
+            return 1;
+
+        return Math.max(1, Integer.parseInt(csvPartCount));
+    }
+
+    private static long getInMemoryMaxBytesFromEnv() {
+        String inMemoryMaxBytes = System.getenv(IN_MEMORY_MAX_BYTES_ENV_VARIABLE);
+        if (inMemoryMaxBytes == null || inMemoryMaxBytes.isEmpty())
+            return DEFAULT_IN_MEMORY_MAX_BYTES;
+
+        return Long.parseLong(inMemoryMaxBytes);
+    }
+
+    /**
+     * Reads the xls straight from the s3 stream when it's small enough to hold in memory, otherwise spools it to a
+     * temp file (which is deleted as soon as the file system has been opened, the open channel keeps it readable)
+     */
+    private NPOIFSFileSystem openXlsFromS3(String s3Key) throws IOException {
         S3Object s3Obj = s3.getObject(HbEtl.S3_BUCKET, s3Key);
-        String filename = HbEtl.getFilenameForS3Key(s3Key);
 
         try (InputStream s3ObjectInputStream = s3Obj.getObjectContent()) {
+            if (s3Obj.getObjectMetadata().getContentLength() <= inMemoryMaxBytes)
+                return new NPOIFSFileSystem(s3ObjectInputStream);
+
+            String filename = HbEtl.getFilenameForS3Key(s3Key);
             File statReportFile = File.createTempFile(StatReportLoader.XLS_TEMP_FILE_PREFIX, StatReportLoader.XLS_TEMP_FILE_DELIMITER + filename);
-            FileUtils.copyInputStreamToFile(s3ObjectInputStream, statReportFile);
+            try {
+                FileUtils.copyInputStreamToFile(s3ObjectInputStream, statReportFile);
 
-            return statReportFile;
+                return new NPOIFSFileSystem(statReportFile);
+            } finally {
+                FileUtils.deleteQuietly(statReportFile);
+            }
         }
     }
 }
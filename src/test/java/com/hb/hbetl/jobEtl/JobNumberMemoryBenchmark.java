@@ -0,0 +1,83 @@
+package com.hb.hbetl.jobEtl;
+
+import com.hb.hbetl.jobEtl.lambdas.JobFailureException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Measures the heap taken by a backlog's worth of job numbers & failures held as {@link JobNumberList} &
+ * {@link JobFailures}, against the boxed lists & failure maps they replaced.
+ *
+ * Usage: JobNumberMemoryBenchmark [job count] (defaults to 1,000,000 jobs, 1 in 10 failing for one of a few reasons)
+ */
+public class JobNumberMemoryBenchmark {
+    private static final Logger LOGGER = LogManager.getLogger(JobNumberMemoryBenchmark.class);
+
+    private static final int DEFAULT_JOB_COUNT = 1000000;
+    private static final int FAILURE_RATE = 10;
+    private static final String[] FAILURE_MESSAGES = {"Read timed out", "Throttled", "Connection reset", "Job page not found"};
+
+    public static void main(String[] args) {
+        int jobCount = (args.length == 0) ? DEFAULT_JOB_COUNT : Integer.parseInt(args[0]);
+
+        // 9 digit job numbers, like the dob's
+        int[] jobNumbers = new Random(jobCount).ints(jobCount, 100000000, 999999999).toArray();
+
+        long boxedBytes = measure(() -> {
+            List<Integer> jobNumberList = new ArrayList<>();
+            Map<Integer, Exception> failures = new ConcurrentHashMap<>();
+            for (int i = 0; i < jobNumbers.length; i++) {
+                jobNumberList.add(jobNumbers[i]);
+                if (i % FAILURE_RATE == 0)
+                    failures.put(jobNumbers[i], new JobFailureException(jobNumbers[i], FAILURE_MESSAGES[i % FAILURE_MESSAGES.length]));
+            }
+
+            return new Object[] {jobNumberList, failures};
+        });
+
+        long primitiveBytes = measure(() -> {
+            JobNumberList jobNumberList = new JobNumberList();
+            JobFailures failures = new JobFailures();
+            for (int i = 0; i < jobNumbers.length; i++) {
+                jobNumberList.add(jobNumbers[i]);
+                if (i % FAILURE_RATE == 0)
+                    failures.add(jobNumbers[i], new JobFailureException(jobNumbers[i], FAILURE_MESSAGES[i % FAILURE_MESSAGES.length]));
+            }
+
+            return new Object[] {jobNumberList, failures};
+        });
+
+        LOGGER.info("{} jobs, {} failed", jobCount, (jobCount + FAILURE_RATE - 1) / FAILURE_RATE);
+        LOGGER.info("List<Integer> & Map<Integer, Exception>: {} MB", String.format("%.1f", boxedBytes / (1024.0 * 1024)));
+        LOGGER.info("JobNumberList & JobFailures: {} MB", String.format("%.1f", primitiveBytes / (1024.0 * 1024)));
+    }
+
+    /**
+     * @return roughly how much heap the supplied object graph takes (the heap used while it's reachable, less the heap
+     * used before it was built)
+     */
+    private static long measure(Supplier<Object> allocator) {
+        long before = usedHeap();
+        Object retained = allocator.get();
+        long after = usedHeap();
+
+        LOGGER.debug("Measured {}", retained.getClass().getSimpleName());
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,242 @@
+package com.hb.hbetl.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.*;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Local stand-in for s3 which keeps objects in memory. Only supports the operations used by the etl (object
+ * get/put/delete, listing & multipart uploads), everything else throws {@link UnsupportedOperationException}.
+ *
+ * Used with {@link com.hb.hbetl.lambdaInvokers.LocalLambdaInvoker} to exercise the lambdas without a real bucket, & by
+ * the throughput benchmarks. It's only in the test source set, so it isn't shipped in the lambda jar.
+ */
+public class InMemoryS3 extends AbstractAmazonS3 {
+    private static class StoredObject {
+        final byte[] content;
+        final ObjectMetadata metadata;
+
+        StoredObject(byte[] content, ObjectMetadata metadata) {
+            this.content = content;
+            this.metadata = metadata;
+        }
+    }
+
+    private final Map<String, StoredObject> objectsByBucketKey;
+    private final Map<String, ConcurrentSkipListMap<Integer, byte[]>> partsByUploadId;
+    private final Map<String, ObjectMetadata> metadataByUploadId;
+
+    public InMemoryS3() {
+        this.objectsByBucketKey = new ConcurrentSkipListMap<>();
+        this.partsByUploadId = new ConcurrentHashMap<>();
+        this.metadataByUploadId = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest request) {
+        ObjectMetadata metadata = (request.getMetadata() == null) ? new ObjectMetadata() : request.getMetadata();
+
+        try {
+            byte[] content = (request.getFile() != null)
+                    ? FileUtils.readFileToByteArray(request.getFile())
+                    : IOUtils.toByteArray(request.getInputStream());
+
+            return store(request.getBucketName(), request.getKey(), content, metadata);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, File file) {
+        return putObject(new PutObjectRequest(bucketName, key, file));
+    }
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, InputStream input, ObjectMetadata metadata) {
+        return putObject(new PutObjectRequest(bucketName, key, input, metadata));
+    }
+
+    @Override
+    public S3Object getObject(String bucketName, String key) {
+        StoredObject storedObject = getStoredObject(bucketName, key);
+
+        S3Object s3Object = new S3Object();
+        s3Object.setBucketName(bucketName);
+        s3Object.setKey(key);
+        s3Object.setObjectMetadata(storedObject.metadata.clone());
+        s3Object.setObjectContent(new ByteArrayInputStream(storedObject.content));
+
+        return s3Object;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+        return getStoredObject(bucketName, key).metadata.clone();
+    }
+
+    @Override
+    public boolean doesObjectExist(String bucketName, String key) {
+        return objectsByBucketKey.containsKey(toBucketKey(bucketName, key));
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) {
+        objectsByBucketKey.remove(toBucketKey(bucketName, key));
+    }
+
+    @Override
+    public ObjectListing listObjects(String bucketName, String prefix) {
+        ObjectListing listing = new ObjectListing();
+        listing.setBucketName(bucketName);
+        listing.setPrefix(prefix);
+        listing.setTruncated(false);
+
+        String bucketPrefix = toBucketKey(bucketName, (prefix == null) ? "" : prefix);
+        objectsByBucketKey.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith(bucketPrefix))
+                .forEach(entry -> {
+                    S3ObjectSummary summary = new S3ObjectSummary();
+                    summary.setBucketName(bucketName);
+                    summary.setKey(entry.getKey().substring(bucketName.length() + 1));
+                    summary.setETag(entry.getValue().metadata.getETag());
+                    summary.setSize(entry.getValue().content.length);
+                    listing.getObjectSummaries().add(summary);
+                });
+
+        return listing;
+    }
+
+    @Override
+    public ObjectListing listNextBatchOfObjects(ObjectListing previousObjectListing) {
+        ObjectListing listing = new ObjectListing();
+        listing.setBucketName(previousObjectListing.getBucketName());
+        listing.setPrefix(previousObjectListing.getPrefix());
+
+        return listing;
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+        String uploadId = UUID.randomUUID().toString();
+        partsByUploadId.put(uploadId, new ConcurrentSkipListMap<>());
+        metadataByUploadId.put(uploadId, (request.getObjectMetadata() == null) ? new ObjectMetadata() : request.getObjectMetadata());
+
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+        result.setUploadId(uploadId);
+
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request) {
+        try {
+            byte[] part = IOUtils.toByteArray(request.getInputStream(), request.getPartSize());
+            getParts(request.getUploadId()).put(request.getPartNumber(), part);
+
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag(md5Hex(part));
+
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        ConcurrentSkipListMap<Integer, byte[]> parts = getParts(request.getUploadId());
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (PartETag partETag : request.getPartETags()) {
+            byte[] part = parts.get(partETag.getPartNumber());
+            content.write(part, 0, part.length);
+        }
+
+        store(request.getBucketName(), request.getKey(), content.toByteArray(), metadataByUploadId.get(request.getUploadId()));
+        abortMultipartUpload(new AbortMultipartUploadRequest(request.getBucketName(), request.getKey(), request.getUploadId()));
+
+        CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+
+        return result;
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+        partsByUploadId.remove(request.getUploadId());
+        metadataByUploadId.remove(request.getUploadId());
+    }
+
+    private PutObjectResult store(String bucketName, String key, byte[] content, ObjectMetadata metadata) {
+        ObjectMetadata storedMetadata = metadata.clone();
+        storedMetadata.setContentLength(content.length);
+        storedMetadata.setHeader("ETag", md5Hex(content));
+
+        objectsByBucketKey.put(toBucketKey(bucketName, key), new StoredObject(content, storedMetadata));
+
+        PutObjectResult result = new PutObjectResult();
+        result.setETag(storedMetadata.getETag());
+
+        return result;
+    }
+
+    private StoredObject getStoredObject(String bucketName, String key) {
+        StoredObject storedObject = objectsByBucketKey.get(toBucketKey(bucketName, key));
+        if (storedObject == null) {
+            AmazonS3Exception notFound = new AmazonS3Exception("The specified key does not exist.");
+            notFound.setStatusCode(404);
+            notFound.setErrorCode("NoSuchKey");
+            throw notFound;
+        }
+
+        return storedObject;
+    }
+
+    private ConcurrentSkipListMap<Integer, byte[]> getParts(String uploadId) {
+        ConcurrentSkipListMap<Integer, byte[]> parts = partsByUploadId.get(uploadId);
+        if (parts == null) {
+            AmazonS3Exception noSuchUpload = new AmazonS3Exception("The specified upload does not exist.");
+            noSuchUpload.setStatusCode(404);
+            noSuchUpload.setErrorCode("NoSuchUpload");
+            throw noSuchUpload;
+        }
+
+        return parts;
+    }
+
+    private static String toBucketKey(String bucketName, String key) {
+        return bucketName + "/" + key;
+    }
+
+    private static String md5Hex(byte[] content) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(content)) {
+                hex.append(String.format("%02x", b));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
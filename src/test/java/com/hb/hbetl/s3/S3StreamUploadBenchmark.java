@@ -0,0 +1,84 @@
+package com.hb.hbetl.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+
+/**
+ * Measures http -> s3 streaming throughput against a local http server & {@link InMemoryS3}, so upload changes can be
+ * compared without touching the dob site or a real bucket.
+ *
+ * Usage: S3StreamUploadBenchmark [body sizes in bytes...] (defaults to a job page sized & a stat report sized body)
+ */
+public class S3StreamUploadBenchmark {
+    private static final Logger LOGGER = LogManager.getLogger(S3StreamUploadBenchmark.class);
+
+    private static final String BUCKET = "benchmark";
+    private static final int ITERATIONS = 20;
+    private static final long[] DEFAULT_BODY_SIZES = {64 * 1024, 20 * 1024 * 1024};
+
+    public static void main(String[] args) throws IOException {
+        long[] bodySizes = (args.length == 0) ? DEFAULT_BODY_SIZES : Arrays.stream(args).mapToLong(Long::parseLong).toArray();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            long bodySize = Long.parseLong(exchange.getRequestURI().getPath().substring(1));
+            exchange.sendResponseHeaders(200, bodySize);
+
+            try (OutputStream output = exchange.getResponseBody()) {
+                writeBody(output, bodySize);
+            }
+        });
+        server.start();
+
+        try {
+            S3StreamUploader uploader = new S3StreamUploader(new InMemoryS3());
+            for (long bodySize : bodySizes) {
+                URL url = new URL("http", "localhost", server.getAddress().getPort(), "/" + bodySize);
+
+                // warm up
+                upload(uploader, url);
+
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    upload(uploader, url);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                LOGGER.info("{} byte bodies: {} uploads/s, {} MB/s",
+                        bodySize,
+                        String.format("%.1f", ITERATIONS / seconds),
+                        String.format("%.1f", bodySize * ITERATIONS / seconds / (1024 * 1024)));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void upload(S3StreamUploader uploader, URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try (InputStream input = connection.getInputStream()) {
+            uploader.upload(input, connection.getContentLengthLong(), BUCKET, url.getPath().substring(1), new ObjectMetadata());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void writeBody(OutputStream output, long bodySize) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        Arrays.fill(chunk, (byte) 'x');
+
+        for (long remaining = bodySize; remaining > 0; remaining -= chunk.length) {
+            output.write(chunk, 0, (int) Math.min(chunk.length, remaining));
+        }
+    }
+}
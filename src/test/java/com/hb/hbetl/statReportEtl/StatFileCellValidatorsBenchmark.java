@@ -0,0 +1,112 @@
+package com.hb.hbetl.statReportEtl;
+
+import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.poi.ss.usermodel.Cell;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Measures cell validation throughput of the char scanning checks in {@link StatFileCellValidators} against the
+ * regexes they replaced, over a mix of cells shaped like a job stat report's (job numbers, short codes, dates, names).
+ *
+ * Usage: StatFileCellValidatorsBenchmark [cell count] (defaults to 1,000,000 cells)
+ */
+public class StatFileCellValidatorsBenchmark {
+    private static final Logger LOGGER = LogManager.getLogger(StatFileCellValidatorsBenchmark.class);
+
+    private static final int DEFAULT_CELL_COUNT = 1000000;
+    private static final int ITERATIONS = 10;
+    private static final int STRING_PRECISION = 50;
+
+    private static final Pattern CELL_EXCLUDES_DELIMITER_PATTERN = Pattern.compile("[^" + StatReportProcessor.CSV_VALUE_DELIMITER + "]*");
+    private static final Pattern VALID_PRIMARY_KEY_PATTERN = Pattern.compile("[0-9]+");
+    private static final Pattern VALID_NUMERIC_CELL_PATTERN = Pattern.compile("[0-9.\\-]*");
+
+    private static final String[] CELL_SHAPES = {"121234567", "MANHATTAN", "A2", "01/17/2017", "JOHN SMITH CONSTRUCTION CORP", "1.5", ""};
+
+    public static void main(String[] args) {
+        int cellCount = (args.length == 0) ? DEFAULT_CELL_COUNT : Integer.parseInt(args[0]);
+
+        Random random = new Random(cellCount);
+        String[] cells = new String[cellCount];
+        int[] columnTypes = new int[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            cells[i] = CELL_SHAPES[random.nextInt(CELL_SHAPES.length)];
+            columnTypes[i] = (random.nextInt(4) == 0) ? Cell.CELL_TYPE_NUMERIC : Cell.CELL_TYPE_STRING;
+        }
+
+        StatFileColumnSchema stringColumn = new StatFileColumnSchema("String", Cell.CELL_TYPE_STRING, STRING_PRECISION, StatFileType.JOB);
+        StatFileColumnSchema numericColumn = new StatFileColumnSchema("Numeric", Cell.CELL_TYPE_NUMERIC, STRING_PRECISION, StatFileType.JOB);
+
+        // warm up
+        int regexFailures = validateWithRegexes(cells, columnTypes);
+        int scannerFailures = validateWithScanners(cells, columnTypes, stringColumn, numericColumn);
+        if (regexFailures != scannerFailures)
+            throw new IllegalStateException(String.format("Regexes failed %d cells but the scanners failed %d", regexFailures, scannerFailures));
+
+        long regexNanos = 0;
+        long scannerNanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            validateWithRegexes(cells, columnTypes);
+            regexNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            validateWithScanners(cells, columnTypes, stringColumn, numericColumn);
+            scannerNanos += System.nanoTime() - start;
+        }
+
+        LOGGER.info("{} cells, {} invalid", cellCount, scannerFailures);
+        LOGGER.info("Regexes: {} M cells/s", String.format("%.1f", (double) cellCount * ITERATIONS / regexNanos * 1000));
+        LOGGER.info("Char scanners: {} M cells/s", String.format("%.1f", (double) cellCount * ITERATIONS / scannerNanos * 1000));
+    }
+
+    /**
+     * @return the number of invalid cells, checked the way StatFileColumnSchema did before the char scanners (with the
+     * numeric check corrected)
+     */
+    private static int validateWithRegexes(String[] cells, int[] columnTypes) {
+        int failures = 0;
+        for (int i = 0; i < cells.length; i++) {
+            try {
+                validateWithRegexes(cells[i], i % 10, columnTypes[i]);
+            } catch (StatReportCellParseException e) {
+                failures++;
+            }
+        }
+
+        return failures;
+    }
+
+    private static void validateWithRegexes(String cellData, int columnNum, int columnType) throws StatReportCellParseException {
+        if (columnNum == StatFileType.JOB.primaryKeyColumnIndex && !VALID_PRIMARY_KEY_PATTERN.matcher(cellData).matches())
+            throw new StatReportCellParseException(columnNum, "Invalid primaryKey. Cell value:'" + cellData + "'");
+
+        if (!CELL_EXCLUDES_DELIMITER_PATTERN.matcher(cellData).matches())
+            throw new StatReportCellParseException(columnNum, "Cell contains delimiter. Cell value:'" + cellData + "'");
+
+        if (columnType == Cell.CELL_TYPE_STRING && cellData.length() > STRING_PRECISION)
+            throw new StatReportCellParseException(columnNum, "Invalid column precision. Cell value:'" + cellData + "' Exceeded expected precision:" + STRING_PRECISION);
+
+        if (columnType == Cell.CELL_TYPE_NUMERIC && !VALID_NUMERIC_CELL_PATTERN.matcher(cellData).matches())
+            throw new StatReportCellParseException(columnNum, "Invalid numeric cell. Cell value:'" + cellData + "'");
+    }
+
+    private static int validateWithScanners(String[] cells, int[] columnTypes, StatFileColumnSchema stringColumn,
+                                            StatFileColumnSchema numericColumn) {
+        int failures = 0;
+        for (int i = 0; i < cells.length; i++) {
+            StatFileColumnSchema column = (columnTypes[i] == Cell.CELL_TYPE_NUMERIC) ? numericColumn : stringColumn;
+            try {
+                column.validateCellSchema(cells[i], i % 10);
+            } catch (StatReportCellParseException e) {
+                failures++;
+            }
+        }
+
+        return failures;
+    }
+}
@@ -0,0 +1,162 @@
+package com.hb.hbetl.statReportEtl;
+
+import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
+import org.apache.poi.ss.usermodel.Cell;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Pins the char scanning cell checks in {@link StatFileCellValidators} to the regexes they replaced. Every column type
+ * is run over the same cells through both & must fail with the same message (or pass).
+ *
+ * The old numeric check was inverted (it threw when a cell did match) & its double escaped pattern also let
+ * backslashes through, so the reference below uses the corrected pattern & throws when a cell doesn't match.
+ */
+public class StatFileCellValidatorsTest {
+    private static final Pattern CELL_EXCLUDES_DELIMITER_PATTERN = Pattern.compile("[^" + StatReportProcessor.CSV_VALUE_DELIMITER + "]*");
+    private static final Pattern VALID_PRIMARY_KEY_PATTERN = Pattern.compile("[0-9]+");
+    private static final Pattern VALID_NUMERIC_CELL_PATTERN = Pattern.compile("[0-9.\\-]*");
+
+    private static final int[] COLUMN_TYPES = {
+            Cell.CELL_TYPE_STRING, Cell.CELL_TYPE_NUMERIC, Cell.CELL_TYPE_BOOLEAN, Cell.CELL_TYPE_BLANK, Cell.CELL_TYPE_FORMULA
+    };
+    private static final int[] PRECISIONS = {-1, 0, 1, 5, 10, 255};
+
+    private static final List<String> EDGE_CASES = Arrays.asList(
+            // empty & whitespace
+            "", " ", "  ", "\t",
+            // signs
+            "-", "+", "-1", "+1", "--1", "1-", "- 1",
+            // decimals
+            ".", "1.", ".5", "1.5", "1.2.3", "-0.25", "1,000",
+            // exponents
+            "1e5", "1E5", "1e-5", "1.5E+10", "e", "E10",
+            // dates
+            "01/17/2017", "2017-01-17", "2017-01-17 00:00:00", "17-JAN-17",
+            // digits only (valid primary keys), including non ascii ones
+            "0", "007", "123456789", "1234567890123", "\u0661\u0662\u0663",
+            // the delimiter on its own, at either end & next to other invalid chars
+            "|", "||", "|1", "1|", "1|2", "a|b", "1.5|", "x|-", "\\", "1\\2", "\\|",
+            // plain strings around the precisions under test
+            "a", "abcde", "abcdef", "abcdefghij", "abcdefghijk", "N/A", "null"
+    );
+
+    @Test
+    public void edgeCasesMatchRegexes() {
+        assertSameResults(EDGE_CASES);
+    }
+
+    @Test
+    public void randomCellsMatchRegexes() {
+        Random random = new Random(42);
+        String alphabet = "0123456789.-+eE |/\\: aZ,\u0661";
+
+        List<String> cells = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            char[] cell = new char[random.nextInt(14)];
+            for (int j = 0; j < cell.length; j++) {
+                cell[j] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            cells.add(new String(cell));
+        }
+
+        assertSameResults(cells);
+    }
+
+    @Test
+    public void numericCellsAcceptDigitsPointsAndMinusOnly() throws StatReportCellParseException {
+        StatFileColumnSchema numericColumn = new StatFileColumnSchema("Numeric", Cell.CELL_TYPE_NUMERIC, 10, StatFileType.JOB);
+
+        for (String cell : Arrays.asList("", "0", "-1", "1.5", "-0.25", "1.2.3", "--")) {
+            numericColumn.validateCellSchema(cell, 1);
+        }
+
+        for (String cell : Arrays.asList("1e5", "+1", " 1", "1,000", "01/17/2017", "1\\2")) {
+            assertNotNull(cell, validate(numericColumn, cell, 1));
+        }
+    }
+
+    @Test
+    public void delimiterTakesPrecedenceOverTypeChecks() {
+        StatFileColumnSchema numericColumn = new StatFileColumnSchema("Numeric", Cell.CELL_TYPE_NUMERIC, 10, StatFileType.JOB);
+        StatFileColumnSchema stringColumn = new StatFileColumnSchema("String", Cell.CELL_TYPE_STRING, 2, StatFileType.JOB);
+
+        assertEquals("Cell contains delimiter. Cell value:'x|-'", validate(numericColumn, "x|-", 1));
+        assertEquals("Cell contains delimiter. Cell value:'abc|'", validate(stringColumn, "abc|", 1));
+    }
+
+    @Test
+    public void primaryKeyMustBeAsciiDigits() {
+        StatFileColumnSchema column = new StatFileColumnSchema("Job #", Cell.CELL_TYPE_STRING, 10, StatFileType.JOB);
+        int primaryKeyColumn = StatFileType.JOB.primaryKeyColumnIndex;
+
+        assertNull(validate(column, "123456789", primaryKeyColumn));
+        assertEquals("Invalid primaryKey. Cell value:''", validate(column, "", primaryKeyColumn));
+        assertEquals("Invalid primaryKey. Cell value:'-1'", validate(column, "-1", primaryKeyColumn));
+        assertEquals("Invalid primaryKey. Cell value:'\u0661'", validate(column, "\u0661", primaryKeyColumn));
+    }
+
+    private static void assertSameResults(List<String> cells) {
+        for (int columnType : COLUMN_TYPES) {
+            for (int precision : PRECISIONS) {
+                StatFileColumnSchema column = new StatFileColumnSchema("Column", columnType, precision, StatFileType.JOB);
+
+                for (int columnNum : new int[] {StatFileType.JOB.primaryKeyColumnIndex, StatFileType.JOB.primaryKeyColumnIndex + 1}) {
+                    for (String cell : cells) {
+                        String description = String.format("type %d, precision %d, column %d, cell '%s'", columnType, precision, columnNum, cell);
+                        assertEquals(description, validateWithRegexes(cell, columnNum, columnType, precision), validate(column, cell, columnNum));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the failure message, or null if the cell is valid
+     */
+    private static String validate(StatFileColumnSchema column, String cell, int columnNum) {
+        try {
+            column.validateCellSchema(cell, columnNum);
+            return null;
+        } catch (StatReportCellParseException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * StatFileColumnSchema.validateCellSchema as it was before the char scanners, with the numeric branch corrected
+     */
+    private static String validateWithRegexes(String cellData, int columnNum, int columnType, int precision) {
+        if (columnNum == StatFileType.JOB.primaryKeyColumnIndex) {
+            if (!VALID_PRIMARY_KEY_PATTERN.matcher(cellData).matches())
+                return "Invalid primaryKey. Cell value:'" + cellData + "'";
+        }
+
+        if (!CELL_EXCLUDES_DELIMITER_PATTERN.matcher(cellData).matches())
+            return "Cell contains delimiter. Cell value:'" + cellData + "'";
+
+        switch (columnType) {
+            case Cell.CELL_TYPE_STRING:
+                if (cellData.length() > precision)
+                    return "Invalid column precision. Cell value:'" + cellData + "' Exceeded expected precision:" + precision;
+                break;
+            case Cell.CELL_TYPE_NUMERIC:
+                if (!VALID_NUMERIC_CELL_PATTERN.matcher(cellData).matches())
+                    return "Invalid numeric cell. Cell value:'" + cellData + "'";
+                break;
+            default:
+                break;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,58 @@
+package com.hb.hbetl.statReportEtl;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+
+/**
+ * Measures the schema load a stat report lambda pays at cold start: reading the compiled schema written by
+ * {@link StatFileSchemaCompiler} against inferring it by parsing the file type's sample xls. The first load of each is
+ * reported on its own (it includes class loading, like a cold start does), followed by the average of fresh loads.
+ *
+ * The compiled schemas are generated by the compileStatFileSchemas task, so run this through gradle.
+ *
+ * Usage: StatFileSchemaLoadBenchmark [loads per file type] (defaults to 20)
+ */
+public class StatFileSchemaLoadBenchmark {
+    private static final Logger LOGGER = LogManager.getLogger(StatFileSchemaLoadBenchmark.class);
+
+    private static final int DEFAULT_LOADS = 20;
+
+    private interface SchemaLoader {
+        StatFileSchema load(StatFileType fileType) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int loads = (args.length == 0) ? DEFAULT_LOADS : Integer.parseInt(args[0]);
+
+        for (StatFileType fileType : StatFileType.values()) {
+            if (fileType.sampleFile == null || fileType.compiledSchemaFile == null)
+                continue;
+
+            if (StatFileSchema.class.getResource(fileType.compiledSchemaFile) == null)
+                throw new IllegalStateException("No compiled schema for " + fileType.name() + " - run compileStatFileSchemas first");
+
+            report(fileType, "Compiled schema", StatFileSchema::loadCompiledSchema, loads);
+            report(fileType, "Sample xls", StatFileSchema::loadSchemaFromSampleFile, loads);
+        }
+    }
+
+    private static void report(StatFileType fileType, String name, SchemaLoader loader, int loads) throws IOException {
+        long start = System.nanoTime();
+        loader.load(fileType);
+        double firstMillis = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        for (int i = 0; i < loads; i++) {
+            loader.load(fileType);
+        }
+        double averageMillis = (System.nanoTime() - start) / 1e6 / loads;
+
+        LOGGER.info("{} {}: first load {}ms, then {}ms per load",
+                fileType.name(),
+                name,
+                String.format("%.2f", firstMillis),
+                String.format("%.2f", averageMillis));
+    }
+}
@@ -0,0 +1,169 @@
+package com.hb.hbetl.statReportEtl;
+
+import com.hb.hbetl.statReportEtl.exceptions.StatReportCellParseException;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.hb.hbetl.statReportEtl.StatReportProcessor.CSV_VALUE_DELIMITER;
+
+/**
+ * Measures throughput & allocation of writing the job sample report's rows as csv through {@link StatReportCsvWriter}
+ * (cells encoded into a reused {@link StatReportCsvRowBuffer}) against the StringBuilder path it replaced, which built
+ * a String per cell (with a new DecimalFormat per numeric cell) & a String per row.
+ *
+ * Both paths write to a discarding output, so only the encoding is measured. Allocation is read from the jvm's per
+ * thread allocation counter, so this needs a HotSpot jvm.
+ *
+ * Usage: StatReportCsvRowBufferBenchmark [passes over the sample rows] (defaults to 20)
+ */
+public class StatReportCsvRowBufferBenchmark {
+    private static final Logger LOGGER = LogManager.getLogger(StatReportCsvRowBufferBenchmark.class);
+
+    private static final int DEFAULT_PASSES = 20;
+    private static final String STAT_FILE_NAME = "job0117.xls";
+
+    private interface RowWriter {
+        void writeRows(List<Row> rows) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int passes = (args.length == 0) ? DEFAULT_PASSES : Integer.parseInt(args[0]);
+
+        StatFileType fileType = StatFileType.JOB;
+        List<StatFileColumnSchema> columnSchemas = StatFileSchema.getSchemaForFileType(fileType).getColumnSchemas();
+        List<Row> rows = readSampleRows(fileType);
+
+        RowWriter stringBuilderPath = sampleRows -> {
+            try (Writer output = new BufferedWriter(new OutputStreamWriter(new NullOutputStream()))) {
+                for (Row row : sampleRows) {
+                    try {
+                        output.write(generateCsvRow(row, columnSchemas));
+                    } catch (StatReportCellParseException e) {
+                        // skipped, like the processor does
+                    }
+                }
+            }
+        };
+
+        RowWriter rowBufferPath = sampleRows -> {
+            try (StatReportCsvWriter output = new StatReportCsvWriter(Collections.singletonList(new NullOutputStream()), columnSchemas, STAT_FILE_NAME)) {
+                for (Row row : sampleRows) {
+                    try {
+                        output.writeRow(new StatReportSheetRow(row));
+                    } catch (StatReportCellParseException e) {
+                        // skipped, like the processor does
+                    }
+                }
+            }
+        };
+
+        // warm up
+        for (int i = 0; i < 5; i++) {
+            stringBuilderPath.writeRows(rows);
+            rowBufferPath.writeRows(rows);
+        }
+
+        LOGGER.info("{} rows x {} passes", rows.size(), passes);
+        report("StringBuilder", stringBuilderPath, rows, passes);
+        report("StatReportCsvRowBuffer", rowBufferPath, rows, passes);
+    }
+
+    private static void report(String name, RowWriter rowWriter, List<Row> rows, int passes) throws IOException {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            rowWriter.writeRows(rows);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        LOGGER.info("{}: {} rows/s, {} bytes allocated per row",
+                name,
+                String.format("%.0f", rows.size() * passes / seconds),
+                String.format("%.0f", (double) allocated / (rows.size() * passes)));
+    }
+
+    private static List<Row> readSampleRows(StatFileType fileType) throws IOException {
+        try (InputStream sampleInput = StatReportCsvRowBufferBenchmark.class.getResourceAsStream(fileType.sampleFile)) {
+            HSSFSheet sheet = new HSSFWorkbook(sampleInput).getSheetAt(0);
+
+            List<Row> rows = new ArrayList<>();
+            for (Row row : sheet) {
+                if (row.getRowNum() >= fileType.headerRowNum)
+                    rows.add(row);
+            }
+
+            return rows;
+        }
+    }
+
+    /**
+     * The csv row as StatReportProcessor.generateCsvRow built it before the row buffer
+     */
+    private static String generateCsvRow(Row row, List<StatFileColumnSchema> columnSchemas) throws StatReportCellParseException {
+        StringBuilder csvRow = new StringBuilder();
+        int colNum = 0;
+
+        for (StatFileColumnSchema columnSchema : columnSchemas) {
+            String cellData = parseCellData(row.getCell(colNum));
+            columnSchema.validateCellSchema(cellData, colNum);
+
+            csvRow.append(cellData);
+            csvRow.append(CSV_VALUE_DELIMITER);
+
+            colNum++;
+        }
+
+        csvRow.append(FilenameUtils.getBaseName(STAT_FILE_NAME));
+        csvRow.append('\n');
+
+        return csvRow.toString();
+    }
+
+    /**
+     * StatReportProcessor.parseCellData as it was before the row buffer
+     */
+    private static String parseCellData(Cell cell) throws StatReportCellParseException {
+        if (cell == null)
+            return "";
+
+        switch (cell.getCellType()) {
+            case Cell.CELL_TYPE_STRING:
+                return cell.getRichStringCellValue().getString();
+            case Cell.CELL_TYPE_NUMERIC:
+                if (DateUtil.isCellDateFormatted(cell))
+                    return String.valueOf(cell.getDateCellValue().getTime());
+
+                return new DecimalFormat("#.#").format(cell.getNumericCellValue());
+            case Cell.CELL_TYPE_BOOLEAN:
+                return String.valueOf(cell.getBooleanCellValue());
+            case Cell.CELL_TYPE_BLANK:
+                return "";
+            default:
+                throw new StatReportCellParseException(cell.getColumnIndex(), "Unsupported cell type");
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}